@@ -0,0 +1,63 @@
+package com.pablo.gt511c1r;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checksum of a command packet (12 bytes) and of an image data packet (51846 bytes)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumBenchmark {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"12", "51846"})
+    public int frameSize;
+
+    private byte[] frame;
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() {
+        frame = new byte[frameSize];
+        new Random(42).nextBytes(frame);
+        chunk = new byte[CHUNK_SIZE];
+    }
+
+    @Benchmark
+    public int wholeFrame() {
+        return PacketCodec.checksum(frame, 0, frame.length - DataPacket.CHECKSUM_SIZE);
+    }
+
+    /**
+     * Incremental checksum as done while streaming a data packet
+     */
+    @Benchmark
+    public int chunked() {
+        final int length = frame.length - DataPacket.CHECKSUM_SIZE;
+        int checksum = 0;
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            final int n = Math.min(CHUNK_SIZE, length - offset);
+            System.arraycopy(frame, offset, chunk, 0, n);
+            checksum = DataPacket.updateChecksum(checksum, chunk, n);
+        }
+        return checksum;
+    }
+}
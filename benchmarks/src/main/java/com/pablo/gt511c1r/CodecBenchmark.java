@@ -0,0 +1,72 @@
+package com.pablo.gt511c1r;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of command packets, decoding of response packets and parsing of the device info
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private final PacketCodec codec = new PacketCodec();
+    private final byte[] frame = new byte[PacketCodec.PACKET_SIZE];
+    private final byte[] response = new byte[PacketCodec.PACKET_SIZE];
+    private final byte[] deviceInfo = new byte[Command.OPEN.getDataPacketSize() - DataPacket.OVERHEAD];
+    private int parameter;
+
+    @Setup
+    public void setUp() {
+        PacketCodec.encode(response, 0, Command.ACK, 0x1234);
+        for (int i = 0; i < deviceInfo.length; i++) {
+            deviceInfo[i] = (byte) (i * 37);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeParameterless() {
+        return codec.encode(Command.GET_ENROLL_COUNT, 0);
+    }
+
+    @Benchmark
+    public byte[] encodeWithParameter() {
+        return codec.encode(Command.CHECK_ENROLLED, ++parameter & 0x0F);
+    }
+
+    @Benchmark
+    public byte[] encodeIntoBuffer() {
+        PacketCodec.encode(frame, 0, Command.CHECK_ENROLLED, ++parameter & 0x0F);
+        return frame;
+    }
+
+    @Benchmark
+    public int decode() {
+        codec.decode(response, 0);
+        return codec.getParameter();
+    }
+
+    @Benchmark
+    public ResponsePacket decodeResponsePacket() {
+        return new ResponsePacket(response);
+    }
+
+    @Benchmark
+    public String[] parseHardwareInfo() {
+        return HardwareInfoUtils.parseHardwareInfo(deviceInfo);
+    }
+}
@@ -0,0 +1,108 @@
+package com.pablo.gt511c1r;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Local stand-in of a serial-to-TCP bridge serving a {@link FingerprintScannerEmulator}
+ * on a loopback port, for measuring {@link NetworkSerialTransport}s without hardware.
+ * Like a serial port it serves one client at a time; bytes are relayed raw in both directions.
+ */
+final class EmulatorBridge implements Closeable {
+
+    private static final int POLL_MILLIS = 20;
+    private static final int BUFFER_SIZE = 4096;
+    private static final long IDLE_NANOS = 100_000;
+
+    private final FingerprintScannerEmulator emulator;
+    private final ServerSocket serverSocket;
+    private volatile boolean running = true;
+
+    /**
+     * Starts serving on an ephemeral loopback port, see {@link #getPort()}
+     *
+     * @param emulator emulator to serve, used exclusively by the bridge from now on
+     * @throws IOException if the port cannot be bound
+     */
+    EmulatorBridge(final FingerprintScannerEmulator emulator) throws IOException {
+        this.emulator = Objects.requireNonNull(emulator);
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        emulator.setReadTimeout(POLL_MILLIS);
+        final Thread acceptor = new Thread(this::accept, "gt511c1r-bridge-" + emulator.getName());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting clients; the current client is disconnected
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (running) {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setTcpNoDelay(true);
+                emulator.open();
+                final Thread downstream = new Thread(() -> relayToClient(socket),
+                        "gt511c1r-bridge-" + emulator.getName() + "-out");
+                downstream.setDaemon(true);
+                downstream.start();
+                try {
+                    relayToEmulator(socket.getInputStream());
+                } finally {
+                    // stops the downstream relay, also when the client reset the connection
+                    emulator.close();
+                    downstream.join();
+                }
+            } catch (IOException e) {
+                // the client disconnected or the bridge was closed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void relayToEmulator(final InputStream input) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = input.read(buffer)) >= 0) {
+            emulator.write(buffer, 0, n);
+        }
+    }
+
+    // polls the emulator until it is closed after the client disconnected
+    private void relayToClient(final Socket socket) {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            final OutputStream output = socket.getOutputStream();
+            while (emulator.isOpen()) {
+                final int wanted = Math.max(1, Math.min(buffer.length, emulator.bytesAvailable()));
+                final int n = emulator.read(buffer, 0, wanted);
+                if (n > 0) {
+                    output.write(buffer, 0, n);
+                } else {
+                    // an emulator without delays does not block on an empty output
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            // the client disconnected
+        }
+    }
+}
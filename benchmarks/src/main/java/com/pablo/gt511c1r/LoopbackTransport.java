@@ -0,0 +1,100 @@
+package com.pablo.gt511c1r;
+
+/**
+ * In-memory transport acknowledging every command with the parameter 0 and, if the
+ * command has one, a data packet of zeros. Responses are prepared once per command,
+ * so the transport itself allocates nothing and allocation profiles show only the driver.
+ */
+final class LoopbackTransport implements SerialTransport {
+
+    private final byte[][] responses = new byte[256][];
+    private byte[] pending;
+    private int position;
+    private boolean open;
+    private int baudRate = 9600;
+    private int readTimeout = 1000;
+
+    LoopbackTransport() {
+        for (final Command command : Command.values()) {
+            final int dataPacketSize = command.getDataPacketSize();
+            final byte[] response = new byte[PacketCodec.PACKET_SIZE + dataPacketSize];
+            PacketCodec.encode(response, 0, Command.ACK, 0);
+            if (dataPacketSize != 0) {
+                final int offset = PacketCodec.PACKET_SIZE;
+                response[offset] = DataPacket.COMMAND_START_CODE_1;
+                response[offset + 1] = (byte) 0xA5;
+                response[offset + 2] = 0x01;
+                final int checksum = PacketCodec.checksum(response, offset, dataPacketSize - DataPacket.CHECKSUM_SIZE);
+                response[response.length - 2] = (byte) checksum;
+                response[response.length - 1] = (byte) (checksum >> 8);
+            }
+            responses[command.getValue() & 0xFF] = response;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "loopback";
+    }
+
+    @Override
+    public boolean open() {
+        open = true;
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        open = false;
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public int bytesAvailable() {
+        return pending == null ? 0 : pending.length - position;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        final int n = Math.min(length, bytesAvailable());
+        if (n > 0) {
+            System.arraycopy(pending, position, buffer, offset, n);
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        if (length == PacketCodec.PACKET_SIZE && buffer[offset] == 0x55) {
+            pending = responses[buffer[offset + 8] & 0xFF];
+            position = 0;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,126 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full command round-trips through in-memory transports. Run with {@code -prof gc} to see
+ * the allocation per call ({@code gc.alloc.rate.norm}):
+ * <ul>
+ * <li>{@code process*} and {@code exchange} use {@link LoopbackTransport}, which allocates
+ * nothing, so the profile shows the driver alone,</li>
+ * <li>{@code scanner*} run {@link FingerprintScanner} against {@link FingerprintScannerEmulator}
+ * answering immediately; the emulator allocates its responses,</li>
+ * <li>{@code network*} run it through a {@link NetworkSerialTransport} connected over
+ * loopback TCP to an {@link EmulatorBridge}, so the profile adds the selector thread.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RoundTripBenchmark {
+
+    private static final int ENROLLED_SLOT = 0;
+
+    private CommandProcessor processor;
+    private FingerprintScanner scanner;
+    private ByteBuffer image;
+    private NetworkTransportHub hub;
+    private EmulatorBridge bridge;
+    private FingerprintScanner networkScanner;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final LoopbackTransport loopback = new LoopbackTransport();
+        loopback.open();
+        processor = new CommandProcessor(loopback);
+
+        final FingerprintScannerEmulator emulator = new FingerprintScannerEmulator("benchmark");
+        emulator.enroll(ENROLLED_SLOT, 1);
+        emulator.placeFinger(1);
+        scanner = new FingerprintScanner(emulator);
+        scanner.open();
+        scanner.setLED(true);
+        image = ByteBuffer.allocate(FingerprintScanner.IMAGE_SIZE);
+
+        final FingerprintScannerEmulator bridged = new FingerprintScannerEmulator("bridged");
+        bridged.placeFinger(1);
+        bridge = new EmulatorBridge(bridged);
+        hub = new NetworkTransportHub();
+        final String host = InetAddress.getLoopbackAddress().getHostAddress();
+        networkScanner = new FingerprintScanner(hub.transport(host, bridge.getPort(), FingerprintScanner.DEFAULT_BAUD_RATE));
+        networkScanner.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        scanner.close();
+        networkScanner.close();
+        hub.close();
+        bridge.close();
+    }
+
+    @Benchmark
+    public ResponsePacket processWithoutData() {
+        return processor.process(Command.GET_ENROLL_COUNT);
+    }
+
+    @Benchmark
+    public ResponsePacket processTemplate() {
+        return processor.process(Command.GET_TEMPLATE, ENROLLED_SLOT);
+    }
+
+    @Benchmark
+    public int exchange() {
+        return processor.exchange(Command.GET_ENROLL_COUNT).getParameter();
+    }
+
+    @Benchmark
+    public boolean scannerIsPressFinger() {
+        return scanner.isPressFinger();
+    }
+
+    @Benchmark
+    public boolean networkIsPressFinger() {
+        return networkScanner.isPressFinger();
+    }
+
+    @Benchmark
+    public int scannerCaptureAndIdentify() throws CommandProcessingException {
+        scanner.captureFinger(false);
+        return scanner.identify();
+    }
+
+    @Benchmark
+    public byte[] scannerGetTemplate() throws CommandProcessingException {
+        scanner.getTemplateCache().clear(); // measure the download, not the cache
+        return scanner.getTemplate(ENROLLED_SLOT);
+    }
+
+    @Benchmark
+    public ByteBuffer scannerGetImage() throws CommandProcessingException {
+        image.clear();
+        scanner.captureFinger(false);
+        scanner.getImage(image, TransferProgressListener.NONE);
+        return image;
+    }
+}
@@ -0,0 +1,400 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous facade of the {@link FingerprintScanner}. Every operation returns
+ * a {@link CompletableFuture} and is executed on a dedicated I/O thread owned by this
+ * instance, which is the only thread writing to the serial port. Any number of threads
+ * may submit operations; they are processed one by one in the order of submission,
+ * so the half-duplex protocol is never interleaved.
+ * <p>
+ * Read-only queries ({@link #isPressFinger()}, {@link #getEnrollCount()} and
+ * {@link #checkEnrolled(int)}) are coalesced: a query identical to one still waiting in
+ * the queue joins it, so concurrent callers are served by a single round-trip. A running
+ * query is not joined, as it may have read the state before the caller changed it. Any
+ * other operation ends the coalescing of the queries submitted before it, so a query never
+ * returns a state older than an operation its caller submitted earlier.
+ * <p>
+ * Futures of failed operations are completed exceptionally with the
+ * {@link CommandProcessingException} or the runtime exception thrown by the scanner.
+ */
+public class AsyncFingerprintScanner {
+
+    /**
+     * Operation executed on the I/O thread with exclusive access to the scanner
+     *
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    public interface Operation<T> {
+        T apply(FingerprintScanner scanner) throws CommandProcessingException;
+    }
+
+    private final FingerprintScanner scanner;
+    private final ExecutorService ioThread;
+    // waiting queries; the lock orders queueing with the end of the coalescing by submit
+    private final ConcurrentMap<Query, CompletableFuture<?>> queries = new ConcurrentHashMap<>();
+    private final Object queueLock = new Object();
+
+    public AsyncFingerprintScanner(final String commPortName) {
+        this(new FingerprintScanner(commPortName));
+    }
+
+    /**
+     * @param scanner scanner used exclusively by this instance from now on
+     * @throws NullPointerException if {@code scanner} is null
+     */
+    public AsyncFingerprintScanner(final FingerprintScanner scanner) {
+        this.scanner = Objects.requireNonNull(scanner);
+        this.ioThread = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "gt511c1r-io-" + scanner.getPortName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits the operation to the I/O thread
+     *
+     * @param operation operation to execute
+     * @param <T>       type of the result
+     * @return future completed with the result of the operation
+     */
+    public <T> CompletableFuture<T> submit(final Operation<T> operation) {
+        Objects.requireNonNull(operation);
+        synchronized (queueLock) {
+            final CompletableFuture<T> future = execute(operation, new CompletableFuture<>());
+            queries.clear();
+            return future;
+        }
+    }
+
+    /**
+     * Submits the read-only query unless an identical one is still waiting
+     *
+     * @return future of this caller; cancelling it does not affect the other callers
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> coalesce(final Query query, final Operation<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        synchronized (queueLock) {
+            final CompletableFuture<T> shared = (CompletableFuture<T>) queries.putIfAbsent(query, future);
+            if (shared != null) {
+                return copyOf(shared);
+            }
+            // removed when it starts running, or when it is cancelled or rejected
+            future.whenComplete((result, error) -> queries.remove(query, future));
+            execute(s -> {
+                queries.remove(query, future);
+                return operation.apply(s);
+            }, future);
+        }
+        return copyOf(future);
+    }
+
+    // unlike thenApply, completes with the original exception instead of a CompletionException
+    private static <T> CompletableFuture<T> copyOf(final CompletableFuture<T> future) {
+        final CompletableFuture<T> copy = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                copy.completeExceptionally(error);
+            } else {
+                copy.complete(result);
+            }
+        });
+        return copy;
+    }
+
+    private <T> CompletableFuture<T> execute(final Operation<T> operation, final CompletableFuture<T> future) {
+        try {
+            ioThread.execute(() -> {
+                if (future.isDone()) {
+                    return; // cancelled while waiting in the queue
+                }
+                try {
+                    future.complete(operation.apply(scanner));
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return the scanner driven by the I/O thread; it must not be used directly by other threads
+     */
+    FingerprintScanner getScanner() {
+        return scanner;
+    }
+
+    public String getPortName() {
+        return scanner.getPortName();
+    }
+
+    /**
+     * @see FingerprintScanner#open()
+     */
+    public CompletableFuture<String[]> open() {
+        return submit(FingerprintScanner::open);
+    }
+
+    /**
+     * Closes communication with GT-511C1R and stops the I/O thread after all
+     * previously submitted operations
+     *
+     * @see FingerprintScanner#close()
+     */
+    public CompletableFuture<Void> close() {
+        final CompletableFuture<Void> future = submit(s -> {
+            s.close();
+            return null;
+        });
+        ioThread.shutdown();
+        return future;
+    }
+
+    /**
+     * @see FingerprintScanner#setLED(boolean)
+     */
+    public CompletableFuture<Boolean> setLED(final boolean on) {
+        return submit(s -> s.setLED(on));
+    }
+
+    /**
+     * @see FingerprintScanner#identify()
+     */
+    public CompletableFuture<Integer> identify() {
+        return submit(FingerprintScanner::identify);
+    }
+
+    /**
+     * @see FingerprintScanner#tryIdentify()
+     */
+    public CompletableFuture<MatchResult> tryIdentify() {
+        return submit(FingerprintScanner::tryIdentify);
+    }
+
+    /**
+     * Captures and identifies in one operation, so no other operation runs in between
+     *
+     * @see FingerprintScanner#captureAndIdentify()
+     */
+    public CompletableFuture<Integer> captureAndIdentify() {
+        return submit(FingerprintScanner::captureAndIdentify);
+    }
+
+    /**
+     * @see FingerprintScanner#tryCaptureAndIdentify()
+     */
+    public CompletableFuture<MatchResult> tryCaptureAndIdentify() {
+        return submit(FingerprintScanner::tryCaptureAndIdentify);
+    }
+
+    /**
+     * @see FingerprintScanner#verify(int)
+     */
+    public CompletableFuture<Boolean> verify(final int id) {
+        return submit(s -> s.verify(id));
+    }
+
+    /**
+     * @see FingerprintScanner#tryVerify(int)
+     */
+    public CompletableFuture<MatchResult> tryVerify(final int id) {
+        return submit(s -> s.tryVerify(id));
+    }
+
+    /**
+     * @see FingerprintScanner#verifyTemplate(byte[], int)
+     */
+    public CompletableFuture<Boolean> verifyTemplate(final byte[] template, final int id) {
+        return submit(s -> s.verifyTemplate(template, id));
+    }
+
+    /**
+     * Captures and verifies in one operation, so no other operation runs in between
+     *
+     * @see FingerprintScanner#captureAndVerify(int)
+     */
+    public CompletableFuture<Boolean> captureAndVerify(final int id) {
+        return submit(s -> s.captureAndVerify(id));
+    }
+
+    /**
+     * @see FingerprintScanner#tryCaptureAndVerify(int)
+     */
+    public CompletableFuture<MatchResult> tryCaptureAndVerify(final int id) {
+        return submit(s -> s.tryCaptureAndVerify(id));
+    }
+
+    /**
+     * @see FingerprintScanner#isPressFinger()
+     */
+    public CompletableFuture<Boolean> isPressFinger() {
+        return coalesce(new Query(Command.IS_PRESS_FINGER, 0), FingerprintScanner::isPressFinger);
+    }
+
+    /**
+     * @see FingerprintScanner#setBaudRate(int)
+     */
+    public CompletableFuture<Boolean> setBaudRate(final int baudRate) {
+        return submit(s -> s.setBaudRate(baudRate));
+    }
+
+    /**
+     * @see FingerprintScanner#getEnrollCount()
+     */
+    public CompletableFuture<Integer> getEnrollCount() {
+        return coalesce(new Query(Command.GET_ENROLL_COUNT, 0), FingerprintScanner::getEnrollCount);
+    }
+
+    /**
+     * @see FingerprintScanner#checkEnrolled(int)
+     */
+    public CompletableFuture<Boolean> checkEnrolled(final int id) {
+        return coalesce(new Query(Command.CHECK_ENROLLED, id), s -> s.checkEnrolled(id));
+    }
+
+    /**
+     * @see FingerprintScanner#enrollStart(int)
+     */
+    public CompletableFuture<Boolean> enrollStart(final int id) {
+        return submit(s -> s.enrollStart(id));
+    }
+
+    /**
+     * @see FingerprintScanner#captureFinger(boolean)
+     */
+    public CompletableFuture<Boolean> captureFinger(final boolean highQuality) {
+        return submit(s -> s.captureFinger(highQuality));
+    }
+
+    /**
+     * @see FingerprintScanner#captureFinger(boolean, ImageQualityGate, int)
+     */
+    public CompletableFuture<ImageQuality> captureFinger(final boolean highQuality,
+                                                         final ImageQualityGate gate,
+                                                         final int maxAttempts) {
+        return submit(s -> s.captureFinger(highQuality, gate, maxAttempts));
+    }
+
+    /**
+     * @see FingerprintScanner#enroll1()
+     */
+    public CompletableFuture<Boolean> enroll1() {
+        return submit(FingerprintScanner::enroll1);
+    }
+
+    /**
+     * @see FingerprintScanner#enroll2()
+     */
+    public CompletableFuture<Boolean> enroll2() {
+        return submit(FingerprintScanner::enroll2);
+    }
+
+    /**
+     * @see FingerprintScanner#enroll3()
+     */
+    public CompletableFuture<Boolean> enroll3() {
+        return submit(FingerprintScanner::enroll3);
+    }
+
+    /**
+     * @see FingerprintScanner#deleteId(int)
+     */
+    public CompletableFuture<Boolean> deleteId(final int id) {
+        return submit(s -> s.deleteId(id));
+    }
+
+    /**
+     * @see FingerprintScanner#deleteAll()
+     */
+    public CompletableFuture<Boolean> deleteAll() {
+        return submit(FingerprintScanner::deleteAll);
+    }
+
+    /**
+     * @see FingerprintScanner#execute(CommandBatch)
+     */
+    public CompletableFuture<CommandBatch> execute(final CommandBatch batch) {
+        return submit(s -> {
+            s.execute(batch);
+            return batch;
+        });
+    }
+
+    /**
+     * @see FingerprintScanner#getImage()
+     */
+    public CompletableFuture<byte[]> getImage() {
+        return submit(FingerprintScanner::getImage);
+    }
+
+    /**
+     * The {@code listener} is called on the I/O thread.
+     *
+     * @see FingerprintScanner#getImage(ByteBuffer, TransferProgressListener)
+     */
+    public CompletableFuture<ByteBuffer> getImage(final ByteBuffer destination,
+                                                  final TransferProgressListener listener) {
+        return submit(s -> {
+            s.getImage(destination, listener);
+            return destination;
+        });
+    }
+
+    /**
+     * @see FingerprintScanner#getTemplate(int)
+     */
+    public CompletableFuture<byte[]> getTemplate(final int id) {
+        return submit(s -> s.getTemplate(id));
+    }
+
+    /**
+     * @see FingerprintScanner#setTemplate(byte[], int, boolean)
+     */
+    public CompletableFuture<Void> setTemplate(final byte[] template, final int id, final boolean duplicateCheck) {
+        return submit(s -> {
+            s.setTemplate(template, id, duplicateCheck);
+            return null;
+        });
+    }
+
+    // identity of a read-only query
+    private static final class Query {
+        private final Command command;
+        private final int parameter;
+
+        private Query(final Command command, final int parameter) {
+            this.command = command;
+            this.parameter = parameter;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Query)) {
+                return false;
+            }
+            final Query query = (Query) o;
+            return command == query.command && parameter == query.parameter;
+        }
+
+        @Override
+        public int hashCode() {
+            return command.hashCode() * 31 + parameter;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Learns per device whether identification should start with a fast low quality capture.
+ * <p>
+ * A speculative attempt is decided on the fast path or escalated to a high quality capture.
+ * The median time to a decision is the fast one as long as more than half of the attempts
+ * are decided on the fast path, so the fast path is tried while the smoothed success rate is
+ * above one half. Otherwise only every {@value #PROBE_INTERVAL}th identification probes it,
+ * so the rate recovers when e.g. a dry finger was replaced by a good one.
+ * <p>
+ * Not thread safe; owned by a {@link FingerprintScanner}.
+ */
+final class CaptureStrategy {
+
+    static final int PROBE_INTERVAL = 16;
+    private static final double THRESHOLD = 0.5;
+    private static final double GAIN = 0.1;
+
+    // optimistic until the device proves otherwise
+    private double successRate = 1;
+    private int skipped;
+
+    /**
+     * @return true if the next identification should start with a low quality capture
+     */
+    boolean tryFastPath() {
+        if (successRate > THRESHOLD || ++skipped >= PROBE_INTERVAL) {
+            skipped = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param decided true if the fast path identified the finger, false if it was escalated
+     *                and the high quality capture identified it
+     */
+    void recordFastPath(final boolean decided) {
+        successRate += GAIN * ((decided ? 1 : 0) - successRate);
+    }
+
+    double getSuccessRate() {
+        return successRate;
+    }
+}
@@ -23,7 +23,7 @@ enum Command {
     VERIFY_TEMPLATE_1_1((byte) 0x52),        // Verification of a fingerprint template with the specified ID
     IDENTIFY_TEMPLATE_1_N((byte) 0x53),        // Identification of a fingerprint template with the database
     CAPTURE_FINGER((byte) 0x60),        // Capture a fingerprint image((byte)256x256) from the sensor
-    MAKE_TEMPLATE((byte) 0x61),        // Make template for transmission
+    MAKE_TEMPLATE((byte) 0x61, 512),        // Make template for transmission
     GET_IMAGE((byte) 0x62, 51846),        // Download the captured fingerprint image((byte)256x256)
     GET_RAW_IMAGE((byte) 0x63, 51846),        // Capture & Download raw fingerprint image((byte)320x240)
     GET_TEMPLATE((byte) 0x70, 512),        // Download the template of the specified ID
@@ -0,0 +1,184 @@
+package com.pablo.gt511c1r;
+
+import java.util.Arrays;
+
+/**
+ * Batch of commands executed by {@link FingerprintScanner#execute(CommandBatch)}, e.g.
+ * checking all slots or deleting a list of IDs. Frames are encoded into one buffer when
+ * the commands are added, so each command costs one write of a ready frame the moment the
+ * previous response is complete. GT-511C1R processes one command at a time, so frames
+ * are not written ahead of the responses.
+ * <p>
+ * Results are kept in primitive arrays indexed by the order of the commands and are
+ * overwritten by the next execution. Only commands without data packets can be batched.
+ * <p>
+ * Not thread safe.
+ */
+public class CommandBatch {
+
+    private static final int INITIAL_CAPACITY = SlotOccupancy.SLOTS;
+
+    private Command[] commands = new Command[INITIAL_CAPACITY];
+    private byte[] frames = new byte[INITIAL_CAPACITY * PacketCodec.PACKET_SIZE];
+    private int[] parameters = new int[INITIAL_CAPACITY];
+    private Error[] errors = new Error[INITIAL_CAPACITY];
+    private int size;
+    private int completed;
+
+    /**
+     * Adds {@code CHECK_ENROLLED}; acknowledged if the slot holds a template
+     *
+     * @throws IllegalArgumentException if {@code id} is not between 0-19
+     */
+    public CommandBatch checkEnrolled(final int id) {
+        return add(Command.CHECK_ENROLLED, checkId(id));
+    }
+
+    /**
+     * Adds a {@code CHECK_ENROLLED} of every slot
+     */
+    public CommandBatch checkAllEnrolled() {
+        for (int id = 0; id < SlotOccupancy.SLOTS; id++) {
+            add(Command.CHECK_ENROLLED, id);
+        }
+        return this;
+    }
+
+    /**
+     * Adds {@code DELETE_ID}
+     *
+     * @throws IllegalArgumentException if {@code id} is not between 0-19
+     */
+    public CommandBatch deleteId(final int id) {
+        return add(Command.DELETE_ID, checkId(id));
+    }
+
+    public CommandBatch deleteAll() {
+        return add(Command.DELETE_ALL, 0);
+    }
+
+    /**
+     * Adds {@code GET_ENROLL_COUNT}; the parameter of the result is the count
+     */
+    public CommandBatch getEnrollCount() {
+        return add(Command.GET_ENROLL_COUNT, 0);
+    }
+
+    /**
+     * Adds {@code IS_PRESS_FINGER}; the parameter of the result is 0 if a finger is pressed
+     */
+    public CommandBatch isPressFinger() {
+        return add(Command.IS_PRESS_FINGER, 0);
+    }
+
+    public CommandBatch setLED(final boolean on) {
+        return add(Command.CMOS_LED, on ? 1 : 0);
+    }
+
+    /**
+     * Removes all commands and results
+     */
+    public void clear() {
+        size = 0;
+        completed = 0;
+    }
+
+    /**
+     * @return number of the commands
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of the commands completed by the last execution; less than {@link #size()}
+     * if the execution was interrupted by a lost response
+     */
+    public int getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @param index index of the command
+     * @return true if the command was acknowledged
+     * @throws IndexOutOfBoundsException if the command was not completed
+     */
+    public boolean isAck(final int index) {
+        return getError(index) == Error.NO_ERROR;
+    }
+
+    /**
+     * @param index index of the command
+     * @return parameter of the response, e.g. the count of {@link #getEnrollCount()}
+     * @throws IndexOutOfBoundsException if the command was not completed
+     */
+    public int getParameter(final int index) {
+        checkCompleted(index);
+        return parameters[index];
+    }
+
+    /**
+     * @param index index of the command
+     * @return error of a not acknowledged command or {@link Error#NO_ERROR}
+     * @throws IndexOutOfBoundsException if the command was not completed
+     */
+    public Error getError(final int index) {
+        checkCompleted(index);
+        return errors[index];
+    }
+
+    Command getCommand(final int index) {
+        return commands[index];
+    }
+
+    /**
+     * @return parameter the command was sent with
+     */
+    int getCommandParameter(final int index) {
+        return PacketCodec.parameter(frames, index * PacketCodec.PACKET_SIZE);
+    }
+
+    byte[] getFrames() {
+        return frames;
+    }
+
+    /**
+     * Stores the response of the next command
+     */
+    void complete(final boolean ack, final int parameter, final Error error) {
+        parameters[completed] = parameter;
+        errors[completed] = ack ? Error.NO_ERROR : error;
+        completed++;
+    }
+
+    void resetResults() {
+        completed = 0;
+    }
+
+    private CommandBatch add(final Command command, final int parameter) {
+        if (size == commands.length) {
+            final int capacity = size * 2;
+            commands = Arrays.copyOf(commands, capacity);
+            frames = Arrays.copyOf(frames, capacity * PacketCodec.PACKET_SIZE);
+            parameters = Arrays.copyOf(parameters, capacity);
+            errors = Arrays.copyOf(errors, capacity);
+        }
+        commands[size] = command;
+        PacketCodec.encode(frames, size * PacketCodec.PACKET_SIZE, command, parameter);
+        size++;
+        return this;
+    }
+
+    private void checkCompleted(final int index) {
+        if (index < 0 || index >= completed) {
+            throw new IndexOutOfBoundsException("command " + index + " was not completed");
+        }
+    }
+
+    private static int checkId(final int id) {
+        if (id < 0 || id >= SlotOccupancy.SLOTS) {
+            throw new IllegalArgumentException("id is not between 0-19");
+        }
+        return id;
+    }
+}
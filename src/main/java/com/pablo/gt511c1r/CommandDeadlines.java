@@ -0,0 +1,140 @@
+package com.pablo.gt511c1r;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the response deadline of each exchange from the bytes to transfer, the baud rate
+ * and the learned service time of the device for the command.
+ * <p>
+ * The service time is the response time minus the transmission time. It is learned per
+ * command and parameter (separately for data packets sent to the device) like the TCP
+ * retransmission timeout: a smoothed mean plus four times the smoothed deviation, so e.g.
+ * a high quality capture does not inherit the deadline of the faster low quality one.
+ * Until the first response is seen the initial service time is used. Every failed exchange
+ * doubles the allowance until the next response, up to the initial service time.
+ * <p>
+ * The service time of capturing, identification and enrollment depends on the finger and
+ * the database rather than on the command, so the initial service time is their floor.
+ * A response missing its deadline still arrives later, and responses carry no command,
+ * so a premature timeout would pair it with the next command.
+ * <p>
+ * Not thread safe; owned by a {@link CommandProcessor}.
+ */
+final class CommandDeadlines {
+
+    static final long MIN_TIMEOUT_MILLIS = 50;
+    static final long MAX_SERVICE_MILLIS = 60_000;
+
+    private static final int BITS_PER_BYTE = 10;
+    // UART gaps and USB-serial latency stretch the transmission
+    private static final double TRANSMISSION_MARGIN = 1.5;
+    private static final double GAIN = 0.125;
+    private static final double DEVIATION_GAIN = 0.25;
+    private static final int DEVIATIONS = 4;
+    // parameters are IDs (0-19), flags or baud rates; classes of the same residue share an estimate
+    private static final int PARAMETER_CLASSES = 32;
+
+    private final long initialServiceMillis;
+    // indexed by the command ordinal, the data flag and the parameter class, see key()
+    private final double[] smoothedMillis;
+    private final double[] deviationMillis;
+    private final int[] backoff;
+
+    /**
+     * @param initialServiceMillis service time allowed until the command was seen
+     */
+    CommandDeadlines(final long initialServiceMillis) {
+        this.initialServiceMillis = initialServiceMillis;
+        final int keys = Command.values().length * 2 * PARAMETER_CLASSES;
+        smoothedMillis = new double[keys];
+        deviationMillis = new double[keys];
+        backoff = new int[keys];
+        Arrays.fill(smoothedMillis, Double.NaN);
+    }
+
+    /**
+     * @param command   command of the exchange
+     * @param parameter parameter of the command
+     * @param data      true for a data packet sent to the device
+     * @param bytes     number of the bytes sent and received
+     * @param baudRate  current baud rate
+     * @return timeout of the whole exchange in milliseconds
+     */
+    long timeoutMillis(final Command command,
+                       final int parameter,
+                       final boolean data,
+                       final int bytes,
+                       final int baudRate) {
+        final int key = key(command, parameter, data);
+        double allowance;
+        if (Double.isNaN(smoothedMillis[key])) {
+            allowance = initialServiceMillis;
+        } else {
+            final double service = smoothedMillis[key] + DEVIATIONS * deviationMillis[key];
+            allowance = Math.min(service * (1L << backoff[key]), Math.max(service, initialServiceMillis));
+        }
+        if (!data && hasVariableServiceTime(command)) {
+            allowance = Math.max(allowance, initialServiceMillis);
+        }
+        final double transmission = transmissionMillis(bytes, baudRate) * TRANSMISSION_MARGIN;
+        return Math.max(MIN_TIMEOUT_MILLIS, (long) Math.ceil(Math.min(allowance, MAX_SERVICE_MILLIS) + transmission));
+    }
+
+    /**
+     * Learns the service time from a completed exchange
+     *
+     * @param elapsedNanos time from sending the command to receiving the whole response
+     */
+    void recordResponse(final Command command,
+                        final int parameter,
+                        final boolean data,
+                        final long elapsedNanos,
+                        final int bytes,
+                        final int baudRate) {
+        final int key = key(command, parameter, data);
+        final double elapsedMillis = elapsedNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        final double sample = Math.max(0, elapsedMillis - transmissionMillis(bytes, baudRate));
+        if (Double.isNaN(smoothedMillis[key])) {
+            smoothedMillis[key] = sample;
+            deviationMillis[key] = sample / 2;
+        } else {
+            deviationMillis[key] += DEVIATION_GAIN * (Math.abs(sample - smoothedMillis[key]) - deviationMillis[key]);
+            smoothedMillis[key] += GAIN * (sample - smoothedMillis[key]);
+        }
+        backoff[key] = 0;
+    }
+
+    /**
+     * Doubles the allowance of the command after a timed out or corrupted response
+     */
+    void recordFailure(final Command command, final int parameter, final boolean data) {
+        final int key = key(command, parameter, data);
+        if (backoff[key] < 16) {
+            backoff[key]++;
+        }
+    }
+
+    private static double transmissionMillis(final int bytes, final int baudRate) {
+        return bytes * BITS_PER_BYTE * 1000.0 / baudRate;
+    }
+
+    private static boolean hasVariableServiceTime(final Command command) {
+        switch (command) {
+            case CAPTURE_FINGER:
+            case IDENTIFY_1_N:
+            case IDENTIFY_TEMPLATE_1_N:
+            case ENROLL_1:
+            case ENROLL_2:
+            case ENROLL_3:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static int key(final Command command, final int parameter, final boolean data) {
+        return ((command.ordinal() * 2 + (data ? 1 : 0)) * PARAMETER_CLASSES)
+                + Math.floorMod(parameter, PARAMETER_CLASSES);
+    }
+}
@@ -0,0 +1,289 @@
+package com.pablo.gt511c1r;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-command metrics of the exchanges of one scanner: latency histograms, bytes sent and
+ * received, NACKs per error and parse failures. Recording only updates atomic counters,
+ * so it is lock-free and cheap enough to stay enabled.
+ * <p>
+ * Latencies are kept in log-linear histograms: exact up to 16 microseconds, then 8 buckets
+ * per power of two, up to 2^32 microseconds.
+ * <p>
+ * Thread safe.
+ */
+public class CommandMetrics implements CommandMetricsMXBean {
+
+    private static final String DOMAIN = "com.pablo.gt511c1r";
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR_BUCKETS + (32 - 4) * SUB_BUCKETS;
+
+    // metrics registered by this class, so a closed scanner does not unregister its successor
+    private static final Map<ObjectName, CommandMetrics> REGISTERED = new ConcurrentHashMap<>();
+
+    private static final Command[] COMMANDS = Command.values();
+    // every command has a key for its command packet and one for its data packet
+    private static final int KEYS = 2 * COMMANDS.length;
+
+    private final String portName;
+    private final AtomicLongArray histograms = new AtomicLongArray(KEYS * BUCKETS);
+    private final AtomicLongArray counts = new AtomicLongArray(KEYS);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(KEYS);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(KEYS);
+    private final AtomicLongArray nacks = new AtomicLongArray(KEYS);
+    private final AtomicLongArray parseFailures = new AtomicLongArray(KEYS);
+    private final AtomicLongArray bytesSent = new AtomicLongArray(KEYS);
+    private final AtomicLongArray bytesReceived = new AtomicLongArray(KEYS);
+    private final AtomicLongArray nacksByError = new AtomicLongArray(Error.values().length);
+    private final LongAdder totalParseFailures = new LongAdder();
+
+    private volatile ObjectName registeredName;
+
+    CommandMetrics(final String portName) {
+        this.portName = portName;
+    }
+
+    /**
+     * Records a completed exchange
+     *
+     * @param command    command of the exchange
+     * @param data       true if a data packet was sent to the device
+     * @param startNanos {@link System#nanoTime()} before the exchange
+     * @param sent       number of the bytes sent
+     * @param received   number of the bytes received
+     * @param ack        true if the device acknowledged
+     * @param error      error of the response
+     */
+    void record(final Command command,
+                final boolean data,
+                final long startNanos,
+                final int sent,
+                final int received,
+                final boolean ack,
+                final Error error) {
+        final int key = key(command, data);
+        recordLatency(key, startNanos);
+        bytesSent.addAndGet(key, sent);
+        bytesReceived.addAndGet(key, received);
+        if (!ack) {
+            nacks.incrementAndGet(key);
+            nacksByError.incrementAndGet(error.ordinal());
+        }
+    }
+
+    /**
+     * Records an exchange whose response was corrupted, truncated or timed out
+     */
+    void recordParseFailure(final Command command, final boolean data, final long startNanos) {
+        final int key = key(command, data);
+        recordLatency(key, startNanos);
+        parseFailures.incrementAndGet(key);
+        totalParseFailures.increment();
+    }
+
+    private void recordLatency(final int key, final long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        counts.incrementAndGet(key);
+        totalNanos.addAndGet(key, nanos);
+        histograms.incrementAndGet(key * BUCKETS + bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        long max = maxNanos.get(key);
+        while (nanos > max && !maxNanos.compareAndSet(key, max, nanos)) {
+            max = maxNanos.get(key);
+        }
+    }
+
+    private static int key(final Command command, final boolean data) {
+        return command.ordinal() * 2 + (data ? 1 : 0);
+    }
+
+    static int bucket(final long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return Math.min(LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket, BUCKETS - 1);
+    }
+
+    static long lowerBound(final int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        final int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - 3);
+    }
+
+    /**
+     * @param command command
+     * @param data    true for the exchanges of the data packets sent to the device
+     * @return snapshot of the statistics of the command
+     */
+    CommandStatistics getStatistics(final Command command, final boolean data) {
+        return statistics(key(command, data));
+    }
+
+    private CommandStatistics statistics(final int key) {
+        final long count = counts.get(key);
+        final long maxMicros = TimeUnit.NANOSECONDS.toMicros(maxNanos.get(key));
+        return new CommandStatistics(count, nacks.get(key), parseFailures.get(key),
+                bytesSent.get(key), bytesReceived.get(key),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get(key) / count),
+                percentile(key, 0.50, maxMicros), percentile(key, 0.99, maxMicros), maxMicros);
+    }
+
+    // upper bound of the bucket holding the percentile, capped by the maximum
+    private long percentile(final int key, final double percentile, final long maxMicros) {
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            total += histograms.get(key * BUCKETS + bucket);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histograms.get(key * BUCKETS + bucket);
+            if (seen >= rank) {
+                return Math.min(lowerBound(bucket + 1) - 1, maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public String getPortName() {
+        return portName;
+    }
+
+    @Override
+    public long getExchangeCount() {
+        return sum(counts);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return sum(bytesSent);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return sum(bytesReceived);
+    }
+
+    @Override
+    public long getNackCount() {
+        return sum(nacksByError);
+    }
+
+    @Override
+    public long getParseFailureCount() {
+        return totalParseFailures.sum();
+    }
+
+    @Override
+    public Map<String, Long> getNackCountsByError() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final Error error : Error.values()) {
+            final long count = nacksByError.get(error.ordinal());
+            if (count != 0) {
+                result.put(error.name(), count);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, CommandStatistics> getCommandStatistics() {
+        final Map<String, CommandStatistics> result = new LinkedHashMap<>();
+        for (final Command command : COMMANDS) {
+            for (final boolean data : new boolean[]{false, true}) {
+                final int key = key(command, data);
+                if (counts.get(key) != 0) {
+                    result.put(data ? command.name() + "_DATA" : command.name(), statistics(key));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resets all metrics. Exchanges recorded concurrently may be partially reset.
+     */
+    @Override
+    public void reset() {
+        for (int i = 0; i < histograms.length(); i++) {
+            histograms.set(i, 0);
+        }
+        for (final AtomicLongArray array : new AtomicLongArray[]{counts, totalNanos, maxNanos, nacks,
+                parseFailures, bytesSent, bytesReceived, nacksByError}) {
+            for (int i = 0; i < array.length(); i++) {
+                array.set(i, 0);
+            }
+        }
+        totalParseFailures.reset();
+    }
+
+    private static long sum(final AtomicLongArray array) {
+        long sum = 0;
+        for (int i = 0; i < array.length(); i++) {
+            sum += array.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, replacing the metrics of
+     * a previous scanner of the same port
+     *
+     * @throws IllegalStateException if the MBean cannot be registered
+     */
+    void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = new ObjectName(DOMAIN + ":type=CommandMetrics,port=" + ObjectName.quote(portName));
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            REGISTERED.put(name, this);
+            registeredName = name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register metrics of " + portName, e);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server if they are registered
+     */
+    void unregister() {
+        final ObjectName name = registeredName;
+        if (name == null) {
+            return;
+        }
+        registeredName = null;
+        if (!REGISTERED.remove(name, this)) {
+            return; // replaced by the metrics of another scanner of the port
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            // unregistered by someone else
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.pablo.gt511c1r;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link CommandMetrics} of one scanner, registered as
+ * {@code com.pablo.gt511c1r:type=CommandMetrics,port=<port name>} while the scanner is open
+ */
+public interface CommandMetricsMXBean {
+
+    String getPortName();
+
+    /**
+     * @return number of the exchanges, including the data packets sent to the device
+     */
+    long getExchangeCount();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    long getNackCount();
+
+    /**
+     * @return number of the corrupted, truncated or timed out responses
+     */
+    long getParseFailureCount();
+
+    /**
+     * @return number of the NACKs per error name
+     */
+    Map<String, Long> getNackCountsByError();
+
+    /**
+     * @return statistics per command name; exchanges of data packets sent to the device
+     * are reported as {@code <command>_DATA}
+     */
+    Map<String, CommandStatistics> getCommandStatistics();
+
+    void reset();
+}
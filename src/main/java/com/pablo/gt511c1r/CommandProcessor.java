@@ -1,37 +1,95 @@
 package com.pablo.gt511c1r;
 
-import com.fazecast.jSerialComm.SerialPort;
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 class CommandProcessor {
 
-    private final SerialPort serialPort;
+    private static final int STREAM_CHUNK_SIZE = 4096;
+    // maximal number of the bytes skipped while resynchronizing to a response packet
+    private static final int MAX_RESYNC_BYTES = 1024;
+    // service time allowed for a command not seen yet if the transport has no read timeout
+    private static final int DEFAULT_SERVICE_MILLIS = 1000;
+    // silence of the line after which the rest of a failed exchange is taken as drained
+    private static final int QUIET_MILLIS = 50;
+    private static final long DRAIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
-    CommandProcessor(final SerialPort serialPort) {
-        this.serialPort = serialPort;
+    private final SerialTransport transport;
+    private final FrameReader reader;
+    private final PacketCodec codec = new PacketCodec();
+    private final CommandMetrics metrics;
+    private final CommandDeadlines deadlines;
+    private final byte[] dataPacketHeader = new byte[DataPacket.HEADER_SIZE];
+    private final byte[] dataPacketChecksum = new byte[DataPacket.CHECKSUM_SIZE];
+    private byte[] streamChunk;
+    // command announcing the data packet sent by sendData
+    private Command lastCommand = Command.NOT_SET;
+    // set after a failed exchange; the rest of its response is discarded before the next command
+    private boolean resync;
+    private long drainUntilNanos;
+
+    CommandProcessor(final SerialTransport transport) {
+        this.transport = Objects.requireNonNull(transport);
+        this.reader = new FrameReader(transport);
+        this.metrics = new CommandMetrics(transport.getName());
+        this.deadlines = new CommandDeadlines(transport.getReadTimeout() > 0 ? transport.getReadTimeout() : DEFAULT_SERVICE_MILLIS);
     }
 
     public CommandProcessor(final String commPortName,
                             final int baudRate,
                             final int readTimeout,
                             final int writeTimeout) {
-        Objects.requireNonNull(commPortName);
-        serialPort = SerialPort.getCommPort(commPortName);
-        serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, readTimeout, writeTimeout);
-        serialPort.setBaudRate(baudRate);
+        this(new JSerialCommTransport(commPortName, baudRate, readTimeout, writeTimeout));
+    }
+
+    SerialTransport getTransport() {
+        return transport;
     }
 
-    SerialPort getSerialPort() {
-        return serialPort; // TODO wyciagnac serialport wyzej
+    CommandMetrics getMetrics() {
+        return metrics;
     }
 
     void openSerialPort() {
-        serialPort.openPort();
+        transport.open();
     }
 
     void closeSerialPort() {
-        serialPort.closePort();
+        transport.close();
+    }
+
+    /**
+     * Re-tunes the serial port to the given baud rate
+     *
+     * @param baudRate new baud rate of the serial port
+     */
+    void setBaudRate(final int baudRate) {
+        transport.setBaudRate(baudRate);
+    }
+
+    int getBaudRate() {
+        return transport.getBaudRate();
+    }
+
+    /**
+     * Discards all bytes waiting in the input buffer of the serial port,
+     * e.g. garbage received while the baud rates did not match
+     */
+    void flushInput() {
+        reader.clear();
+        resync = false;
+    }
+
+    /**
+     * @return number of the garbage bytes skipped while resynchronizing to packets
+     */
+    long getSkippedBytes() {
+        return reader.getSkippedBytes();
     }
 
     /**
@@ -42,8 +100,19 @@ class CommandProcessor {
      * @return response packet of the command
      */
     ResponsePacket process(final Command command, final int parameter) {
-        sendCommand(serialPort, command, parameter);
-        return readResponse(serialPort, command.getDataPacketSize());
+        final int expected = PacketCodec.PACKET_SIZE + command.getDataPacketSize();
+        final long start = begin(command, parameter, false, PacketCodec.PACKET_SIZE + expected);
+        final ResponsePacket response;
+        try {
+            sendCommand(command, parameter);
+            response = readResponse(command.getDataPacketSize());
+        } catch (ResponsePacketParingException e) {
+            failed(command, parameter, false, start);
+            throw e;
+        }
+        completed(command, parameter, false, start, PacketCodec.PACKET_SIZE,
+                response.ack() ? expected : PacketCodec.PACKET_SIZE, response.ack(), response.getError());
+        return response;
     }
 
     /**
@@ -53,43 +122,315 @@ class CommandProcessor {
      * @return response packet of the command
      */
     ResponsePacket process(final Command command) {
-        sendCommand(serialPort, command, 0);
-        return readResponse(serialPort, command.getDataPacketSize());
+        return process(command, 0);
+    }
+
+    /**
+     * Processing command without a data packet in the response. Nothing is allocated,
+     * the response is decoded in place by the codec of this processor.
+     *
+     * @param command   command to process
+     * @param parameter parameter of the command
+     * @return codec holding the response of the command, valid until the next command
+     * @throws IllegalArgumentException if the response of the {@code command} has a data packet
+     */
+    PacketCodec exchange(final Command command, final int parameter) {
+        if (command.getDataPacketSize() != 0) {
+            throw new IllegalArgumentException(command + " response has a data packet");
+        }
+        final long start = begin(command, parameter, false, 2 * PacketCodec.PACKET_SIZE);
+        try {
+            sendCommand(command, parameter);
+            readResponsePacket();
+        } catch (ResponsePacketParingException e) {
+            failed(command, parameter, false, start);
+            throw e;
+        }
+        completed(command, parameter, false, start, PacketCodec.PACKET_SIZE, PacketCodec.PACKET_SIZE,
+                codec.ack(), codec.getError());
+        return codec;
+    }
+
+    /**
+     * Processing command with the parameter 0 without a data packet in the response
+     *
+     * @param command command to process
+     * @return codec holding the response of the command, valid until the next command
+     * @throws IllegalArgumentException if the response of the {@code command} has a data packet
+     */
+    PacketCodec exchange(final Command command) {
+        return exchange(command, 0);
+    }
+
+    /**
+     * Processing the commands of the batch one after another. The frames were encoded when
+     * the commands were added, so each command is a single write of a ready frame; the
+     * responses are decoded in place and stored into the batch.
+     *
+     * @param batch batch of commands without data packets
+     * @throws ResponsePacketParingException if a response is corrupted or truncated; the batch
+     *                                       keeps the results of the commands completed before
+     */
+    void exchangeAll(final CommandBatch batch) {
+        if (!transport.isOpen()) {
+            throw new IllegalArgumentException("Serial port is not opened");
+        }
+        batch.resetResults();
+        final byte[] frames = batch.getFrames();
+        for (int i = 0; i < batch.size(); i++) {
+            final Command command = batch.getCommand(i);
+            final int parameter = batch.getCommandParameter(i);
+            final long start = begin(command, parameter, false, 2 * PacketCodec.PACKET_SIZE);
+            try {
+                lastCommand = command;
+                transport.write(frames, i * PacketCodec.PACKET_SIZE, PacketCodec.PACKET_SIZE);
+                readResponsePacket();
+            } catch (ResponsePacketParingException e) {
+                failed(command, parameter, false, start);
+                throw e;
+            }
+            completed(command, parameter, false, start, PacketCodec.PACKET_SIZE, PacketCodec.PACKET_SIZE,
+                    codec.ack(), codec.getError());
+            batch.complete(codec.ack(), codec.getParameter(), codec.getError());
+        }
     }
 
     /**
-     * Sends command to GT-511C1R through the serialPort port
+     * Processing command with a data packet in the response. The data packet is read
+     * in chunks directly into the {@code sink}, verifying its checksum incrementally,
+     * so only one chunk is held in memory. The data packet is read only if the command
+     * was acknowledged.
+     *
+     * @param command   command to process
+     * @param parameter parameter of the command
+     * @param sink      destination of the data bytes of the data packet
+     * @param listener  listener notified after each chunk
+     * @return codec holding the response packet of the command
+     * @throws IOException                   if the {@code sink} failed
+     * @throws ResponsePacketParingException if the response or the data packet is corrupted or truncated
+     * @throws IllegalArgumentException      if the response of the {@code command} has no data packet
+     */
+    PacketCodec stream(final Command command,
+                       final int parameter,
+                       final OutputStream sink,
+                       final TransferProgressListener listener) throws IOException {
+        final int dataSize = command.getDataPacketSize() - DataPacket.OVERHEAD;
+        if (dataSize <= 0) {
+            throw new IllegalArgumentException(command + " response has no data packet");
+        }
+        final int expected = PacketCodec.PACKET_SIZE + command.getDataPacketSize();
+        final long start = begin(command, parameter, false, PacketCodec.PACKET_SIZE + expected);
+        try {
+            sendCommand(command, parameter);
+            readResponsePacket();
+            if (codec.ack()) {
+                streamDataPacket(dataSize, sink, listener);
+            }
+        } catch (ResponsePacketParingException e) {
+            failed(command, parameter, false, start);
+            throw e;
+        } catch (IOException e) {
+            reader.clearDeadline();
+            resync = true; // the rest of the data packet is still coming
+            drainUntilNanos = System.nanoTime();
+            throw e;
+        }
+        completed(command, parameter, false, start, PacketCodec.PACKET_SIZE,
+                codec.ack() ? expected : PacketCodec.PACKET_SIZE, codec.ack(), codec.getError());
+        return codec;
+    }
+
+    private void streamDataPacket(final int dataSize,
+                                  final OutputStream sink,
+                                  final TransferProgressListener listener) throws IOException {
+        int checksum = readDataPacketHeader();
+        if (streamChunk == null) {
+            streamChunk = new byte[STREAM_CHUNK_SIZE];
+        }
+        int transferred = 0;
+        while (transferred < dataSize) {
+            final int length = Math.min(streamChunk.length, dataSize - transferred);
+            reader.read(streamChunk, 0, length);
+            checksum = DataPacket.updateChecksum(checksum, streamChunk, length);
+            sink.write(streamChunk, 0, length);
+            transferred += length;
+            listener.onProgress(transferred, dataSize);
+        }
+        reader.read(dataPacketChecksum, 0, DataPacket.CHECKSUM_SIZE);
+        DataPacket.checkChecksum(checksum, dataPacketChecksum);
+    }
+
+    /**
+     * Starts an exchange: drains the rest of a failed exchange, then sets the response deadline
+     * and the read timeout of the transport
+     *
+     * @param bytes number of the bytes sent and received by the exchange
+     * @return start time of the exchange
+     */
+    private long begin(final Command command, final int parameter, final boolean data, final int bytes) {
+        if (resync) {
+            drainInput();
+        }
+        final long timeoutMillis = deadlines.timeoutMillis(command, parameter, data, bytes, transport.getBaudRate());
+        // rounded up to a power of two, so the timeout of the port changes only when the deadline moves a lot
+        final int readTimeout = Integer.highestOneBit((int) Math.min(timeoutMillis, 1 << 30) - 1) << 1;
+        if (readTimeout != transport.getReadTimeout()) {
+            transport.setReadTimeout(readTimeout);
+        }
+        final long start = System.nanoTime();
+        reader.setDeadline(start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        return start;
+    }
+
+    private void completed(final Command command,
+                           final int parameter,
+                           final boolean data,
+                           final long start,
+                           final int sent,
+                           final int received,
+                           final boolean ack,
+                           final Error error) {
+        reader.clearDeadline();
+        metrics.record(command, data, start, sent, received, ack, error);
+        deadlines.recordResponse(command, parameter, data, System.nanoTime() - start, sent + received,
+                transport.getBaudRate());
+    }
+
+    private void failed(final Command command, final int parameter, final boolean data, final long start) {
+        reader.clearDeadline();
+        resync = true;
+        metrics.recordParseFailure(command, data, start);
+        deadlines.recordFailure(command, parameter, data);
+        // a late response may still come within the backed off allowance
+        drainUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlines.timeoutMillis(
+                command, parameter, data, PacketCodec.PACKET_SIZE, transport.getBaudRate()));
+    }
+
+    /**
+     * Discards the rest of a failed exchange. Responses carry no command, so a late response
+     * read after the next command would be taken for its response. Input is discarded until
+     * the allowance of the failed command has passed, or until the line was quiet for
+     * {@value #QUIET_MILLIS} ms after the late bytes arrived.
+     */
+    private void drainInput() {
+        final long quietNanos = TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS);
+        long until = Math.max(drainUntilNanos, System.nanoTime() + quietNanos);
+        while (true) {
+            final long now = System.nanoTime();
+            if (reader.clear() > 0) {
+                until = now + quietNanos;
+            } else if (now - until >= 0) {
+                break;
+            } else {
+                LockSupport.parkNanos(Math.min(until - now, DRAIN_POLL_NANOS));
+            }
+        }
+        resync = false;
+    }
+
+    /**
+     * Reads the next valid response packet into the codec. Garbage before the start codes
+     * and candidates failing the validation (e.g. start codes inside garbage) are skipped.
+     *
+     * @throws ResponsePacketParingException if no valid packet was found within {@value #MAX_RESYNC_BYTES}
+     *                                       bytes or the transport timed out
+     */
+    private void readResponsePacket() {
+        int skipped = 0;
+        while (true) {
+            skipped += reader.seek(PacketCodec.START_CODE_1, PacketCodec.START_CODE_2, MAX_RESYNC_BYTES - skipped);
+            reader.peek(codec.responseBuffer(), 0, PacketCodec.PACKET_SIZE);
+            try {
+                codec.decode();
+                reader.skip(PacketCodec.PACKET_SIZE);
+                return;
+            } catch (ResponsePacketParingException e) {
+                if (skipped == MAX_RESYNC_BYTES) {
+                    throw e;
+                }
+                reader.skip(1);
+                skipped++;
+            }
+        }
+    }
+
+    /**
+     * Reads and validates the header of the data packet following an acknowledged response
+     *
+     * @return checksum of the header
+     */
+    private int readDataPacketHeader() {
+        reader.seek(DataPacket.COMMAND_START_CODE_1, (byte) DataPacket.COMMAND_START_CODE_2, MAX_RESYNC_BYTES);
+        reader.read(dataPacketHeader, 0, DataPacket.HEADER_SIZE);
+        return DataPacket.checkHeader(dataPacketHeader);
+    }
+
+    /**
+     * Sends command to GT-511C1R through the transport
      *
-     * @param serial    instance of the serialPort port
      * @param command   command of the GT-511C1R
      * @param parameter parameter of the command
      * @return number of the bytes sent
      */
-    private static int sendCommand(final SerialPort serial, final Command command, final int parameter) {
-        final CommandPacket commandPacket = new CommandPacket(command, parameter);
-        return commandPacket.send(serial);
+    private int sendCommand(final Command command, final int parameter) {
+        if (!transport.isOpen()) {
+            throw new IllegalArgumentException("Serial port is not opened");
+        }
+        lastCommand = command;
+        final byte[] frame = codec.encode(command, parameter);
+        return transport.write(frame, 0, frame.length);
     }
 
     /**
-     * Reads response from GT-511C1R through the serialPort port
+     * Reads response from GT-511C1R through the transport. The data packet is read only
+     * if the command was acknowledged.
      *
-     * @param serial         instance of the serialPort port
      * @param dataPacketSize size of the data packet in a response packet
      * @return response packet from GT-511C1R
      */
-    private static ResponsePacket readResponse(final SerialPort serial, final int dataPacketSize) {
-        final ResponsePacket responsePacket = ResponsePacket.read(serial, dataPacketSize);
-        return responsePacket;
+    private ResponsePacket readResponse(final int dataPacketSize) {
+        readResponsePacket();
+        final int size = codec.ack() ? dataPacketSize : 0;
+        final byte[] responseBytes = new byte[PacketCodec.PACKET_SIZE + size];
+        System.arraycopy(codec.responseBuffer(), 0, responseBytes, 0, PacketCodec.PACKET_SIZE);
+        if (size != 0) {
+            final int dataOffset = PacketCodec.PACKET_SIZE + DataPacket.HEADER_SIZE;
+            final int dataSize = size - DataPacket.OVERHEAD;
+            final int headerChecksum = readDataPacketHeader();
+            System.arraycopy(dataPacketHeader, 0, responseBytes, PacketCodec.PACKET_SIZE, DataPacket.HEADER_SIZE);
+            reader.read(responseBytes, dataOffset, dataSize);
+            final int checksum = headerChecksum + PacketCodec.checksum(responseBytes, dataOffset, dataSize);
+            reader.read(dataPacketChecksum, 0, DataPacket.CHECKSUM_SIZE);
+            DataPacket.checkChecksum(checksum, dataPacketChecksum);
+            System.arraycopy(dataPacketChecksum, 0, responseBytes, dataOffset + dataSize, DataPacket.CHECKSUM_SIZE);
+        }
+        return new ResponsePacket(responseBytes);
     }
 
-    ResponsePacket sendData(final byte[] data) {
-        sendData(serialPort, data);
-        return readResponse(serialPort, 0);
+    /**
+     * Sends a data packet following the acknowledged command, e.g. a template after {@code SET_TEMPLATE}
+     *
+     * @param data data bytes of the data packet
+     * @return codec holding the response of the data packet, valid until the next command
+     */
+    PacketCodec sendData(final byte[] data) {
+        final Command command = lastCommand;
+        final int dataPacketSize = data.length + DataPacket.OVERHEAD;
+        final long start = begin(command, 0, true, dataPacketSize + PacketCodec.PACKET_SIZE);
+        try {
+            sendData(transport, data);
+            readResponsePacket();
+        } catch (ResponsePacketParingException e) {
+            failed(command, 0, true, start);
+            throw e;
+        }
+        completed(command, 0, true, start, dataPacketSize, PacketCodec.PACKET_SIZE, codec.ack(), codec.getError());
+        return codec;
     }
 
-    private static int sendData(final SerialPort serial, final byte[] data) {
+    private static int sendData(final SerialTransport transport, final byte[] data) {
         final DataPacket dataPacket = DataPacket.commandBody(data);
-        return dataPacket.send(serial);
+        return dataPacket.send(transport);
     }
 
 }
@@ -0,0 +1,83 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Snapshot of the statistics of one command. Latency percentiles are read from a histogram
+ * with the relative precision of 12.5%.
+ */
+public class CommandStatistics {
+
+    private final long count;
+    private final long nacks;
+    private final long parseFailures;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+
+    CommandStatistics(final long count,
+                      final long nacks,
+                      final long parseFailures,
+                      final long bytesSent,
+                      final long bytesReceived,
+                      final long meanMicros,
+                      final long p50Micros,
+                      final long p99Micros,
+                      final long maxMicros) {
+        this.count = count;
+        this.nacks = nacks;
+        this.parseFailures = parseFailures;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return number of the completed exchanges, including parse failures
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getNacks() {
+        return nacks;
+    }
+
+    public long getParseFailures() {
+        return parseFailures;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", nacks=" + nacks + ", parseFailures=" + parseFailures
+                + ", p50=" + p50Micros + "us, p99=" + p99Micros + "us, max=" + maxMicros + "us";
+    }
+}
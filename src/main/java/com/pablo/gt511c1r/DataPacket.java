@@ -1,11 +1,15 @@
 package com.pablo.gt511c1r;
 
-import com.fazecast.jSerialComm.SerialPort;
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
 
 class DataPacket {
 
+    static final int HEADER_SIZE = 4;
+    static final int CHECKSUM_SIZE = 2;
+    static final int OVERHEAD = HEADER_SIZE + CHECKSUM_SIZE;
+
     static final byte COMMAND_START_CODE_1 = 0x5A;    // Static byte to mark the beginning of a command packet	-	never changes
-    private static final int COMMAND_START_CODE_2 = 0xA5;    // Static byte to mark the beginning of a command packet	-	never changes
+    static final int COMMAND_START_CODE_2 = 0xA5;    // Static byte to mark the beginning of a command packet	-	never changes
     private static final byte COMMAND_DEVICE_ID_1 = 0x01;    // Device ID Byte 1 (lesser byte)							-	theoretically never changes
     private static final byte COMMAND_DEVICE_ID_2 = 0x00;    // Device ID Byte 2 (greater byte)							-	theoretically never changes
 
@@ -67,6 +71,57 @@ class DataPacket {
         checkParsing(buffer[29], checksumHigh, checksumHigh, "Checksum_HIGH", useSerialDebug);
     }
 
+    /**
+     * Checks the header of a data packet received in chunks
+     *
+     * @param header first {@link #HEADER_SIZE} bytes of the data packet
+     * @return checksum of the header to continue with the payload chunks
+     * @throws ResponsePacketParingException if the header is corrupted
+     */
+    static int checkHeader(final byte[] header) {
+        checkHeaderByte(header[0], COMMAND_START_CODE_1, "COMMAND_START_CODE_1");
+        checkHeaderByte(header[1], (byte) COMMAND_START_CODE_2, "COMMAND_START_CODE_2");
+        checkHeaderByte(header[2], COMMAND_DEVICE_ID_1, "COMMAND_DEVICE_ID_1");
+        checkHeaderByte(header[3], COMMAND_DEVICE_ID_2, "COMMAND_DEVICE_ID_2");
+        return calculateChecksum(header, HEADER_SIZE);
+    }
+
+    /**
+     * Continues the checksum of a data packet received in chunks
+     *
+     * @param checksum checksum of the previous chunks
+     * @param chunk    bytes of the chunk
+     * @param length   number of the bytes in the chunk
+     * @return checksum including the chunk
+     */
+    static int updateChecksum(int checksum, final byte[] chunk, final int length) {
+        for (int i = 0; i < length; i++) {
+            checksum += chunk[i] & 0xFF;
+        }
+        return checksum;
+    }
+
+    /**
+     * Compares the checksum of a data packet received in chunks with the trailing checksum bytes
+     *
+     * @param checksum      checksum of the header and all payload chunks
+     * @param checksumBytes last {@link #CHECKSUM_SIZE} bytes of the data packet
+     * @throws ResponsePacketParingException if the checksums are different
+     */
+    static void checkChecksum(final int checksum, final byte[] checksumBytes) {
+        final int received = (checksumBytes[0] & 0xFF) | (checksumBytes[1] & 0xFF) << 8;
+        if (received != (checksum & 0xFFFF)) {
+            throw new ResponsePacketParingException("Data packet checksum -> required=" + (checksum & 0xFFFF)
+                    + " found=" + received);
+        }
+    }
+
+    private static void checkHeaderByte(final byte b, final byte properValue, final String varName) {
+        if (b != properValue) {
+            throw new ResponsePacketParingException(varName + " -> required=" + properValue + " found=" + b);
+        }
+    }
+
     private static byte[] parseDataBytes(final byte[] buffer) {
         final byte[] dataBytes = new byte[buffer.length - 6];
         for (int i = 4; i < buffer.length - 2; i++) {
@@ -118,11 +173,11 @@ class DataPacket {
         return retval;
     }
 
-    int send(final SerialPort serial) {
-        if (!serial.isOpen()) {
+    int send(final SerialTransport transport) {
+        if (!transport.isOpen()) {
             System.out.println("Serial port is not opened.");
             throw new IllegalArgumentException("Serial port is not opened");
         }
-        return serial.writeBytes(rawBytes, rawBytes.length);
+        return transport.write(rawBytes, 0, rawBytes.length);
     }
 }
@@ -0,0 +1,151 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Health of one scanner of the {@link ScannerPool}. Outcomes of operations are classified as:
+ * <ul>
+ * <li>success</li>
+ * <li>NACK - the device answered with an error caused by the request or the finger,
+ * e.g. {@link Error#NACK_IDENTIFY_FAILED}; the device is healthy</li>
+ * <li>failure - the transport failed: a corrupted or lost response packet, an I/O error,
+ * {@link Error#NACK_COMM_ERR} or an unknown error code; repeated failures take the device
+ * out of rotation</li>
+ * </ul>
+ * Other exceptions, e.g. invalid arguments or cancellations, are caused by the caller
+ * and do not affect the health.
+ */
+public class DeviceHealth {
+
+    private final String portName;
+    private final int maxConsecutiveFailures;
+    private final long probationNanos;
+
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder nacks = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastFailureNanos = new AtomicLong();
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    DeviceHealth(final String portName, final int maxConsecutiveFailures, final long probationNanos) {
+        this.portName = portName;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.probationNanos = probationNanos;
+    }
+
+    void recordSuccess() {
+        successes.increment();
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Records the failed outcome
+     *
+     * @param error exception the operation was completed with
+     */
+    void recordError(final Throwable error) {
+        if (isDeviceFailure(error)) {
+            failures.increment();
+            lastFailureNanos.set(System.nanoTime());
+            consecutiveFailures.incrementAndGet();
+        } else if (error instanceof CommandProcessingException) {
+            nacks.increment();
+            consecutiveFailures.set(0);
+        }
+    }
+
+    static boolean isDeviceFailure(final Throwable error) {
+        if (error instanceof CommandProcessingException) {
+            final Error e = ((CommandProcessingException) error).getError().orElse(Error.INVALID);
+            return e == Error.NACK_COMM_ERR || e == Error.INVALID;
+        }
+        return error instanceof ResponsePacketParingException
+                || error instanceof IOException
+                || error instanceof UncheckedIOException;
+    }
+
+    AtomicInteger inFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return true if operations are dispatched to the device; a device out of rotation
+     * gets a single probe operation after the probation period, see {@link #tryBeginProbe()}
+     */
+    boolean isDispatchable() {
+        return isInRotation() || !probing.get() && isProbationOver();
+    }
+
+    /**
+     * Claims the probe of a device out of rotation
+     *
+     * @return true if no other probe is in flight and the probation period is over
+     */
+    boolean tryBeginProbe() {
+        return isProbationOver() && probing.compareAndSet(false, true);
+    }
+
+    /**
+     * Releases the probe after its outcome was recorded
+     */
+    void endProbe() {
+        probing.set(false);
+    }
+
+    private boolean isProbationOver() {
+        return System.nanoTime() - lastFailureNanos.get() >= probationNanos;
+    }
+
+    public String getPortName() {
+        return portName;
+    }
+
+    public boolean isInRotation() {
+        return consecutiveFailures.get() < maxConsecutiveFailures;
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    public long getNacks() {
+        return nacks.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return ratio of the NACKs and failures to all finished operations
+     */
+    public double getErrorRate() {
+        final long errors = nacks.sum() + failures.sum();
+        final long total = errors + successes.sum();
+        return total == 0 ? 0.0 : (double) errors / total;
+    }
+
+    @Override
+    public String toString() {
+        return portName + " [inRotation=" + isInRotation() + ", successes=" + getSuccesses()
+                + ", nacks=" + getNacks() + ", failures=" + getFailures() + ", inFlight=" + getInFlight() + "]";
+    }
+}
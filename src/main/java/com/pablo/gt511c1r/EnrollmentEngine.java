@@ -0,0 +1,278 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs enrollments as asynchronous state machines:
+ * <pre>
+ * ENROLL_START -> 3 x (wait for the finger -> CAPTURE_FINGER + ENROLL_n -> wait for the lift)
+ * </pre>
+ * Commands are submitted to the I/O thread of the {@link AsyncFingerprintScanner} and the
+ * waits for the finger are polls scheduled on a single timer thread shared by all
+ * enrollments, so no thread is blocked while the user moves the finger and any number of
+ * stations can enroll concurrently.
+ * <p>
+ * A scan rejected with {@link Error#NACK_BAD_FINGER} (or lifted too early) is retried after
+ * the finger was lifted. A failed or cancelled enrollment is rolled back: a template possibly
+ * stored by {@code ENROLL_3} is deleted. The CMOS LED is switched on for the enrollment.
+ * <p>
+ * With an {@link ImageQualityGate} set, every scan is checked on the host before its
+ * {@code ENROLL_n}, and a rejected capture is retried like a bad finger.
+ */
+public class EnrollmentEngine {
+
+    /**
+     * Stage of an enrollment reported to the {@link EnrollmentListener}
+     */
+    public enum Stage {
+        STARTED,
+        WAITING_FOR_FINGER,
+        SCANNED,
+        WAITING_FOR_LIFT,
+        RETRYING,
+        ENROLLED,
+        FAILED
+    }
+
+    /**
+     * Receives the progress of an enrollment; called on the I/O thread of the scanner or
+     * on the timer thread of the engine, so it must not block. Runtime exceptions thrown by
+     * the listener are ignored.
+     */
+    @FunctionalInterface
+    public interface EnrollmentListener {
+
+        EnrollmentListener NONE = (slot, stage, scan) -> {
+        };
+
+        /**
+         * @param slot  slot being enrolled
+         * @param stage reached stage
+         * @param scan  number of the scan (1-3) or 0 outside of the scans
+         */
+        void onProgress(int slot, Stage stage, int scan);
+    }
+
+    private static final int SCANS = 3;
+    private static final long DEFAULT_POLL_INTERVAL_MILLIS = 50;
+    private static final long DEFAULT_FINGER_TIMEOUT_MILLIS = 15_000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    private final long pollIntervalMillis;
+    private final long fingerTimeoutMillis;
+    private final int maxRetries;
+    private final ScheduledExecutorService timer;
+    private volatile ImageQualityGate qualityGate;
+
+    public EnrollmentEngine() {
+        this(DEFAULT_POLL_INTERVAL_MILLIS, DEFAULT_FINGER_TIMEOUT_MILLIS, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @param pollIntervalMillis  interval of the polls for the finger
+     * @param fingerTimeoutMillis maximal wait for a finger to be placed or lifted
+     * @param maxRetries          maximal number of the retries of each scan
+     * @throws IllegalArgumentException if the interval or the timeout is not positive or {@code maxRetries} is negative
+     */
+    public EnrollmentEngine(final long pollIntervalMillis, final long fingerTimeoutMillis, final int maxRetries) {
+        if (pollIntervalMillis <= 0 || fingerTimeoutMillis <= 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("interval and timeout must be positive, retries cannot be negative");
+        }
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.fingerTimeoutMillis = fingerTimeoutMillis;
+        this.maxRetries = maxRetries;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "gt511c1r-enrollment");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the enrollment of a finger into the slot. Cancelling the returned future
+     * aborts the enrollment at the next step and rolls it back.
+     *
+     * @param scanner  opened scanner
+     * @param slot     slot to enroll, must be free
+     * @param listener listener of the progress
+     * @return future completed with the slot, or exceptionally with the {@link CommandProcessingException}
+     * of the failed step or a {@link TimeoutException} if the finger was not placed or lifted in time
+     */
+    public CompletableFuture<Integer> enroll(final AsyncFingerprintScanner scanner,
+                                             final int slot,
+                                             final EnrollmentListener listener) {
+        final Enrollment enrollment = new Enrollment(Objects.requireNonNull(scanner), slot, Objects.requireNonNull(listener));
+        enrollment.start();
+        return enrollment.result;
+    }
+
+    /**
+     * Sets the gate checking the captures of the scans started from now on
+     *
+     * @param qualityGate gate, or null to enroll every capture accepted by the device
+     */
+    public void setQualityGate(final ImageQualityGate qualityGate) {
+        this.qualityGate = qualityGate;
+    }
+
+    /**
+     * Stops the timer thread; running enrollments fail at their next wait
+     */
+    public void shutdown() {
+        timer.shutdown();
+    }
+
+    private static boolean isRetryable(final Throwable error) {
+        if (!(error instanceof CommandProcessingException)) {
+            return false;
+        }
+        final Error e = ((CommandProcessingException) error).getError().orElse(Error.INVALID);
+        return e == Error.NACK_BAD_FINGER || e == Error.NACK_FINGER_IS_NOT_PRESSED;
+    }
+
+    // steps run one after another on the I/O thread or the timer thread, never concurrently
+    private final class Enrollment {
+        private final AsyncFingerprintScanner scanner;
+        private final int slot;
+        private final EnrollmentListener listener;
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+        private int scan;
+        private int retries;
+        private long waitDeadline;
+        // true once ENROLL_3 was sent; the slot may hold the template even if the response was lost
+        private boolean stored;
+
+        private Enrollment(final AsyncFingerprintScanner scanner, final int slot, final EnrollmentListener listener) {
+            this.scanner = scanner;
+            this.slot = slot;
+            this.listener = listener;
+        }
+
+        // an exception of the listener must not stall the state machine
+        private void progress(final Stage stage, final int number) {
+            try {
+                listener.onProgress(slot, stage, number);
+            } catch (RuntimeException e) {
+                // the listener only observes the enrollment
+            }
+        }
+
+        private void start() {
+            progress(Stage.STARTED, 0);
+            scanner.submit(s -> {
+                s.setLED(true);
+                return s.enrollStart(slot);
+            }).whenComplete((started, error) -> {
+                if (error != null) {
+                    fail(error);
+                } else {
+                    scan = 1;
+                    waitForFinger(true);
+                }
+            });
+        }
+
+        private void waitForFinger(final boolean pressed) {
+            progress(pressed ? Stage.WAITING_FOR_FINGER : Stage.WAITING_FOR_LIFT, scan);
+            waitDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fingerTimeoutMillis);
+            poll(pressed);
+        }
+
+        private void poll(final boolean pressed) {
+            if (result.isCancelled()) {
+                fail(null);
+                return;
+            }
+            scanner.isPressFinger().whenComplete((isPressed, error) -> {
+                if (error != null) {
+                    fail(error);
+                } else if (isPressed == pressed) {
+                    if (pressed) {
+                        scan();
+                    } else {
+                        waitForFinger(true);
+                    }
+                } else if (System.nanoTime() - waitDeadline > 0) {
+                    fail(new TimeoutException("Finger was not " + (pressed ? "placed" : "lifted") + " in time"));
+                } else {
+                    try {
+                        timer.schedule(() -> poll(pressed), pollIntervalMillis, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException e) {
+                        fail(e);
+                    }
+                }
+            });
+        }
+
+        private void scan() {
+            final int current = scan;
+            stored |= current == SCANS;
+            final ImageQualityGate gate = qualityGate;
+            scanner.submit(s -> {
+                if (gate == null) {
+                    s.captureFinger(true);
+                } else {
+                    s.captureFinger(true, gate, 1);
+                }
+                switch (current) {
+                    case 1:
+                        return s.enroll1();
+                    case 2:
+                        return s.enroll2();
+                    default:
+                        return s.enroll3();
+                }
+            }).whenComplete((enrolled, error) -> {
+                if (result.isCancelled()) {
+                    fail(null);
+                } else if (error == null) {
+                    progress(Stage.SCANNED, current);
+                    if (current == SCANS) {
+                        complete();
+                    } else {
+                        scan++;
+                        retries = 0;
+                        waitForFinger(false);
+                    }
+                } else if (isRetryable(error) && retries < maxRetries) {
+                    retries++;
+                    progress(Stage.RETRYING, current);
+                    waitForFinger(false);
+                } else {
+                    fail(error);
+                }
+            });
+        }
+
+        private void complete() {
+            scanner.submit(s -> s.setLED(false)).whenComplete((ignored, error) -> {
+                progress(Stage.ENROLLED, 0);
+                result.complete(slot);
+            });
+        }
+
+        // deletes the template possibly stored by this enrollment, then fails the result unless it was cancelled
+        private void fail(final Throwable error) {
+            scanner.submit(s -> {
+                if (stored && s.checkEnrolled(slot)) {
+                    s.deleteId(slot);
+                }
+                s.setLED(false);
+                return null;
+            }).whenComplete((ignored, rollbackError) -> {
+                progress(Stage.FAILED, scan);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.pablo.gt511c1r;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls GT-511C1R for a finger on the sensor and publishes finger-down and finger-up
+ * events. Right after any activity (a touch, a lift or {@link #markActivity()}) the sensor
+ * is polled every minimal interval; while nothing happens the interval is doubled up to
+ * the maximal interval, so an idle scanner does not saturate the serial link.
+ * <p>
+ * Polls are submitted to the I/O thread of the {@link AsyncFingerprintScanner}, so they
+ * interleave safely with other operations. The CMOS LED has to be on to detect a finger.
+ * Listeners are called on the scheduler thread of the detector; runtime exceptions thrown
+ * by a listener are ignored, so the other listeners still receive the event.
+ */
+public class FingerPresenceDetector {
+
+    /**
+     * Receives finger presence events
+     */
+    public interface FingerListener {
+
+        void onFingerDown();
+
+        void onFingerUp();
+
+        /**
+         * Called when polling the scanner failed; polling continues at the maximal interval
+         *
+         * @param error cause of the failure
+         */
+        default void onError(final Throwable error) {
+        }
+    }
+
+    private static final long DEFAULT_MIN_INTERVAL_MILLIS = 20;
+    private static final long DEFAULT_MAX_INTERVAL_MILLIS = 500;
+
+    private final AsyncFingerprintScanner scanner;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final List<FingerListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean running;
+    private volatile boolean activity;
+    private volatile boolean fingerPressed;
+    private long intervalMillis;
+
+    public FingerPresenceDetector(final AsyncFingerprintScanner scanner) {
+        this(scanner, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param scanner           scanner to poll
+     * @param minIntervalMillis polling interval right after activity
+     * @param maxIntervalMillis polling interval of an idle scanner
+     * @throws NullPointerException     if {@code scanner} is null
+     * @throws IllegalArgumentException if the intervals are not positive or the minimal is greater than the maximal
+     */
+    public FingerPresenceDetector(final AsyncFingerprintScanner scanner,
+                                  final long minIntervalMillis,
+                                  final long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("intervals must be positive and min <= max");
+        }
+        this.scanner = Objects.requireNonNull(scanner);
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "gt511c1r-presence-" + scanner.getPortName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(final FingerListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeListener(final FingerListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts polling the scanner
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        scheduler.execute(this::poll);
+    }
+
+    /**
+     * Stops polling the scanner; the detector cannot be restarted
+     */
+    public synchronized void stop() {
+        running = false;
+        scheduler.shutdown();
+    }
+
+    /**
+     * Switches back to the minimal polling interval, e.g. when a badge was presented
+     * and a touch is expected
+     */
+    public void markActivity() {
+        activity = true;
+    }
+
+    /**
+     * @return state of the finger seen by the last poll
+     */
+    public boolean isFingerPressed() {
+        return fingerPressed;
+    }
+
+    private void poll() {
+        if (!running) {
+            return;
+        }
+        scanner.isPressFinger().whenComplete((pressed, error) -> {
+            if (!running) {
+                return;
+            }
+            try {
+                scheduler.execute(() -> {
+                    try {
+                        onPolled(pressed, error);
+                    } finally {
+                        reschedule();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // stopped while polling
+            }
+        });
+    }
+
+    private void reschedule() {
+        try {
+            scheduler.schedule(this::poll, intervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped while notifying the listeners
+        }
+    }
+
+    // runs on the scheduler thread only
+    private void onPolled(final Boolean pressed, final Throwable error) {
+        if (error != null) {
+            intervalMillis = maxIntervalMillis;
+            for (final FingerListener listener : listeners) {
+                try {
+                    listener.onError(error);
+                } catch (RuntimeException e) {
+                    // a listener only observes the detector
+                }
+            }
+            return;
+        }
+        if (pressed != fingerPressed) {
+            fingerPressed = pressed;
+            activity = true;
+            for (final FingerListener listener : listeners) {
+                try {
+                    if (pressed) {
+                        listener.onFingerDown();
+                    } else {
+                        listener.onFingerUp();
+                    }
+                } catch (RuntimeException e) {
+                    // a listener only observes the detector
+                }
+            }
+        }
+        if (activity || fingerPressed) {
+            activity = false;
+            intervalMillis = minIntervalMillis;
+        } else {
+            intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+        }
+    }
+}
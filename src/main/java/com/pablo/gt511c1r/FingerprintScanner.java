@@ -3,43 +3,212 @@ package com.pablo.gt511c1r;
 
 import com.fazecast.jSerialComm.SerialPort;
 import com.pablo.gt511c1r.exception.CommandProcessingException;
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
 
 public class FingerprintScanner {
 
-    private static final int BAUD_RATE = 9600;
+    /**
+     * Size of the fingerprint image downloaded by {@link #getImage()}
+     */
+    public static final int IMAGE_SIZE = Command.GET_IMAGE.getDataPacketSize() - DataPacket.OVERHEAD;
+    /**
+     * Size of the raw fingerprint image downloaded by {@link #getRawImage(ByteBuffer, TransferProgressListener)}
+     */
+    public static final int RAW_IMAGE_SIZE = Command.GET_RAW_IMAGE.getDataPacketSize() - DataPacket.OVERHEAD;
+
+    static final int DEFAULT_BAUD_RATE = 9600;
+    private static final int MAX_BAUD_RATE = 115200;
+    // Supported baud rates, fastest first
+    private static final int[] BAUD_RATES = {115200, 57600, 38400, 19200, 9600};
+
+    private static final int DEFAULT_TEMPLATE_CACHE_CAPACITY = 20;
+    // Non-zero high word of the SET_TEMPLATE parameter disables the duplicate check
+    private static final int SKIP_DUPLICATE_CHECK = 0x00010000;
+    // captures of one identification or verification assessed by the quality gate
+    private static final int QUALITY_GATE_ATTEMPTS = 3;
+
     private final CommandProcessor commandProcessor;
+    private final int targetBaudRate;
+    private final SlotOccupancy slots = new SlotOccupancy();
+    private final CaptureStrategy captureStrategy = new CaptureStrategy();
+    private TemplateCache templateCache = new TemplateCache(DEFAULT_TEMPLATE_CACHE_CAPACITY);
+    private ImageQualityGate qualityGate;
+    // image downloaded for the gate, reused by all captures
+    private byte[] gateImage;
+    private int enrollingId = -1;
 
 
     public FingerprintScanner(final String commPortName) {
-        commandProcessor = new CommandProcessor(commPortName, BAUD_RATE, 1000, 0);
+        this(commPortName, MAX_BAUD_RATE);
+    }
+
+    /**
+     * @param commPortName   name of the serial port
+     * @param targetBaudRate baud rate negotiated with GT-511C1R on {@link #open()}
+     * @throws IllegalArgumentException if {@code targetBaudRate} is different that:
+     *                                  9600, 19200, 38400, 57600 or 115200
+     */
+    public FingerprintScanner(final String commPortName, final int targetBaudRate) {
+        checkBaudRate(targetBaudRate);
+        commandProcessor = new CommandProcessor(commPortName, DEFAULT_BAUD_RATE, 1000, 0);
+        this.targetBaudRate = targetBaudRate;
     }
 
     FingerprintScanner(final SerialPort serialPort) {
-        commandProcessor = new CommandProcessor(serialPort);
+        this(new JSerialCommTransport(serialPort));
+    }
+
+    /**
+     * @param transport transport to GT-511C1R, e.g. {@link FingerprintScannerEmulator};
+     *                  its current baud rate is kept on {@link #open()}
+     */
+    public FingerprintScanner(final SerialTransport transport) {
+        this(transport, transport.getBaudRate());
+    }
+
+    /**
+     * @param transport      transport to GT-511C1R
+     * @param targetBaudRate baud rate negotiated with GT-511C1R on {@link #open()}
+     * @throws IllegalArgumentException if {@code targetBaudRate} is different that:
+     *                                  9600, 19200, 38400, 57600 or 115200
+     */
+    public FingerprintScanner(final SerialTransport transport, final int targetBaudRate) {
+        checkBaudRate(targetBaudRate);
+        commandProcessor = new CommandProcessor(transport);
+        this.targetBaudRate = targetBaudRate;
     }
 
     public boolean isSerialPortOpened() {
-        return commandProcessor.getSerialPort().isOpen();
+        return commandProcessor.getTransport().isOpen();
+    }
+
+    /**
+     * Replaces the cache of the downloaded templates, e.g. with a cache shared by many scanners
+     *
+     * @param templateCache cache of the templates
+     * @throws NullPointerException if {@code templateCache} is null
+     */
+    public void setTemplateCache(final TemplateCache templateCache) {
+        this.templateCache = Objects.requireNonNull(templateCache);
+    }
+
+    public TemplateCache getTemplateCache() {
+        return templateCache;
     }
 
     /**
-     * Initiates communication with GT-511C1R
+     * Sets the gate checking the captures of {@link #captureAndIdentify()}, {@link #captureAndVerify(int)},
+     * their exception-free variants and {@link TemplatePager#captureAndIdentify()} before the
+     * device matches them. A rejected image is captured again up to {@value #QUALITY_GATE_ATTEMPTS}
+     * times, then the match fails with {@link Error#NACK_BAD_FINGER}.
+     *
+     * @param qualityGate gate, or null to match every capture accepted by the device
+     */
+    public void setQualityGate(final ImageQualityGate qualityGate) {
+        this.qualityGate = qualityGate;
+    }
+
+    public ImageQualityGate getQualityGate() {
+        return qualityGate;
+    }
+
+    /**
+     * @return name of the serial port (or other transport) the GT-511C1R is connected to
+     */
+    public String getPortName() {
+        return commandProcessor.getTransport().getName();
+    }
+
+    /**
+     * @return metrics of the exchanges with the device, published through JMX while the scanner is open
+     */
+    public CommandMetrics getMetrics() {
+        return commandProcessor.getMetrics();
+    }
+
+    /**
+     * Initiates communication with GT-511C1R. If the device does not respond
+     * at the current baud rate (e.g. it was left at a non-default rate) all supported
+     * rates are probed. Afterwards the baud rate is upgraded to the target baud rate,
+     * staying at the working rate if the upgrade fails. Finally the occupancy of the
+     * database slots is read, so later slot queries are answered locally.
      *
      * @return array with hardware info
+     * @throws ResponsePacketParingException if the device does not respond at any supported baud rate;
+     *                                       the port is closed then
      */
     public String[] open() {
         commandProcessor.openSerialPort();
-        final ResponsePacket responsePacket = commandProcessor.process(Command.OPEN, 1);
+        commandProcessor.getMetrics().register();
+        final ResponsePacket responsePacket;
+        try {
+            responsePacket = negotiateOpen();
+            if (commandProcessor.getBaudRate() != targetBaudRate) {
+                setBaudRate(targetBaudRate);
+            }
+        } catch (ResponsePacketParingException e) {
+            commandProcessor.getMetrics().unregister();
+            commandProcessor.closeSerialPort();
+            throw e;
+        }
+        try {
+            resyncSlots();
+        } catch (CommandProcessingException e) {
+            slots.markUnsynced(); // slot queries fall back to the device
+        }
         final byte[] dataBytes = responsePacket.getDataBytes();
         return HardwareInfoUtils.parseHardwareInfo(dataBytes);
     }
 
+    /**
+     * Sends the open command at the current baud rate and then at every supported
+     * baud rate until the device responds
+     *
+     * @return response packet of the open command
+     */
+    private ResponsePacket negotiateOpen() {
+        final int initialBaudRate = commandProcessor.getBaudRate();
+        ResponsePacketParingException lastException;
+        try {
+            return openAt(initialBaudRate);
+        } catch (ResponsePacketParingException e) {
+            lastException = e;
+        }
+        for (final int baudRate : BAUD_RATES) {
+            if (baudRate == initialBaudRate) {
+                continue;
+            }
+            try {
+                return openAt(baudRate);
+            } catch (ResponsePacketParingException e) {
+                lastException = e;
+            }
+        }
+        commandProcessor.setBaudRate(initialBaudRate);
+        throw lastException;
+    }
+
+    private ResponsePacket openAt(final int baudRate) {
+        commandProcessor.setBaudRate(baudRate);
+        commandProcessor.flushInput();
+        return commandProcessor.process(Command.OPEN, 1);
+    }
+
     /**
      * Closes communication with GT-511C1R
      */
     public void close() {
-        commandProcessor.process(Command.CLOSE);
-        commandProcessor.closeSerialPort();
+        try {
+            commandProcessor.exchange(Command.CLOSE);
+            commandProcessor.closeSerialPort();
+        } finally {
+            commandProcessor.getMetrics().unregister();
+        }
     }
 
     /**
@@ -49,8 +218,8 @@ public class FingerprintScanner {
      * @return true if LED backlight state was switched successfully or false if any error has occurred
      */
     public boolean setLED(boolean on) {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.CMOS_LED, on ? 1 : 0);
-        return responsePacket.ack();
+        final PacketCodec response = commandProcessor.exchange(Command.CMOS_LED, on ? 1 : 0);
+        return response.ack();
     }
 
     /**
@@ -60,13 +229,121 @@ public class FingerprintScanner {
      * @throws CommandProcessingException if failed to find the fingerprint in the database
      */
     public int identify() throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.IDENTIFY_1_N);
+        return idOf(tryIdentify());
+    }
 
-        if (responsePacket.isSuccess()) {
-            return responsePacket.getParameter();
+    /**
+     * Checks the currently pressed finger against all enrolled fingerprints without
+     * throwing on a miss
+     *
+     * @return the matched ID or the error, e.g. {@link Error#NACK_IDENTIFY_FAILED}
+     */
+    public MatchResult tryIdentify() {
+        return matchOf(commandProcessor.exchange(Command.IDENTIFY_1_N));
+    }
+
+    /**
+     * Captures the currently pressed finger and checks it against all enrolled fingerprints.
+     * While the fast path pays off on this device, the finger is captured in low quality first
+     * and captured again in high quality only if the device rejects it with
+     * {@link Error#NACK_BAD_FINGER} or {@link Error#NACK_IDENTIFY_FAILED}.
+     *
+     * @return The specified ID of fingerprint (0-19)
+     * @throws CommandProcessingException if finger is not pressed, failed to find the fingerprint
+     *                                    in the database or any error has occurred
+     */
+    public int captureAndIdentify() throws CommandProcessingException {
+        return idOf(tryCaptureAndIdentify());
+    }
+
+    /**
+     * Captures the currently pressed finger and checks it against all enrolled fingerprints
+     * like {@link #captureAndIdentify()}, without throwing on a miss
+     *
+     * @return the matched ID or the error, e.g. {@link Error#NACK_IDENTIFY_FAILED}
+     * or {@link Error#NACK_FINGER_IS_NOT_PRESSED}
+     */
+    public MatchResult tryCaptureAndIdentify() {
+        if (!captureStrategy.tryFastPath()) {
+            return captureAndMatch(true, Command.IDENTIFY_1_N, -1);
+        }
+        final MatchResult fast = captureAndMatch(false, Command.IDENTIFY_1_N, -1);
+        final Error error = fast.getError();
+        if (error != Error.NACK_BAD_FINGER && error != Error.NACK_IDENTIFY_FAILED) {
+            if (fast.isMatch()) {
+                captureStrategy.recordFastPath(true);
+            }
+            return fast;
+        }
+        final MatchResult escalated = captureAndMatch(true, Command.IDENTIFY_1_N, -1);
+        // an unknown finger fails with either capture and says nothing about the fast path
+        if (escalated.isMatch()) {
+            captureStrategy.recordFastPath(false);
+        }
+        return escalated;
+    }
+
+    /**
+     * @param id claimed ID for a verification or -1 for an identification
+     */
+    private MatchResult captureAndMatch(final boolean highQuality, final Command command, final int id) {
+        if (qualityGate != null) {
+            try {
+                captureForMatch(highQuality);
+            } catch (CommandProcessingException e) {
+                return MatchResult.failed(e.getError().orElse(Error.INVALID));
+            }
         } else {
-            throw new CommandProcessingException(responsePacket.getError());
+            final PacketCodec capture = commandProcessor.exchange(Command.CAPTURE_FINGER, highQuality ? 1 : 0);
+            if (!capture.isSuccess() || !capture.ack()) {
+                return MatchResult.failed(capture.getError());
+            }
+        }
+        return matchOf(commandProcessor.exchange(command, Math.max(id, 0)), id);
+    }
+
+    /**
+     * Captures the currently pressed finger for a match, checked by the quality gate if one is set
+     *
+     * @throws CommandProcessingException with {@link Error#NACK_BAD_FINGER} if the gate rejected
+     *                                    all captures, or if finger is not pressed or any error has occurred
+     */
+    void captureForMatch(final boolean highQuality) throws CommandProcessingException {
+        final ImageQualityGate gate = qualityGate;
+        if (gate == null) {
+            captureFinger(highQuality);
+        } else {
+            captureFinger(highQuality, gate, QUALITY_GATE_ATTEMPTS);
+        }
+    }
+
+    private static MatchResult matchOf(final PacketCodec response) {
+        return matchOf(response, -1);
+    }
+
+    /**
+     * @param id claimed ID for a verification or -1 for an identification reporting the matched ID
+     */
+    private static MatchResult matchOf(final PacketCodec response, final int id) {
+        if (response.isSuccess() && response.ack()) {
+            return MatchResult.matched(id >= 0 ? id : response.getParameter());
         }
+        return MatchResult.failed(response.getError());
+    }
+
+    private static int idOf(final MatchResult result) throws CommandProcessingException {
+        if (result.isMatch()) {
+            return result.getId();
+        }
+        throw new CommandProcessingException(result.getError());
+    }
+
+    /**
+     * @return smoothed rate of the low quality captures in {@link #captureAndIdentify()}
+     * which identified the finger without escalation, 0-1
+     */
+    public double getFastPathSuccessRate() {
+        return captureStrategy.getSuccessRate();
     }
 
     /**
@@ -75,50 +352,92 @@ public class FingerprintScanner {
      * @return true if finger is pressed of false if not
      */
     public boolean isPressFinger() {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.IS_PRESS_FINGER);
-        return responsePacket.getParameter() == 0;
+        final PacketCodec response = commandProcessor.exchange(Command.IS_PRESS_FINGER);
+        return response.getParameter() == 0;
     }
 
     /**
-     * Changes the baud rate of the communication
+     * Changes the baud rate of the communication. The new rate is verified with
+     * a round-trip; if the device does not respond the previous rate is restored
+     * (probing all supported rates if the device already switched).
+     *
      * @param baudRate baud rate of the communication.
      * @return true if the baud rate was changed succesully or false if not
      * @throws IllegalArgumentException if baud rate is different that:
-     * 9600, 19200, 38400, 57600 or 115200
+     *                                  9600, 19200, 38400, 57600 or 115200
+     */
+    public boolean setBaudRate(final int baudRate) {
+        checkBaudRate(baudRate);
+        final int previousBaudRate = commandProcessor.getBaudRate();
+        if (baudRate == previousBaudRate) {
+            return true;
+        }
+        final PacketCodec response;
+        try {
+            response = commandProcessor.exchange(Command.CHANGE_BAUD_RATE, baudRate);
+        } catch (ResponsePacketParingException e) {
+            // the reply was lost, the device may have switched anyway
+            recoverBaudRate(previousBaudRate);
+            return false;
+        }
+        if (!response.isSuccess() || !response.ack()) {
+            return false;
+        }
+        commandProcessor.setBaudRate(baudRate);
+        if (isResponding()) {
+            return true;
+        }
+        recoverBaudRate(previousBaudRate);
+        return false;
+    }
+
+    /**
+     * Returns to the previous baud rate, probing all supported rates if the device is not there
+     *
+     * @throws ResponsePacketParingException if the device does not respond at any supported baud rate
      */
-//    boolean setBaudRate(int baudRate) {
-//        if ((baudRate == 9600) || (baudRate == 19200) || (baudRate == 38400)
-//                || (baudRate == 57600) || (baudRate == 115200)) {
-//            final ResponsePacket responsePacket = process(Command.CHANGE_BAUD_RATE, baudRate);
-//
-//            if (responsePacket.isSuccess()) {
-//                serialPort.setBaudRate(baudRate);
-//                return true;
-//            } else {
-//                return false;
-//            }
-//        }
-//
-//        throw new IllegalArgumentException("Baud rate must be 9600, 19200, 38400, 57600 or 115200");
-//    }
+    private void recoverBaudRate(final int previousBaudRate) {
+        commandProcessor.setBaudRate(previousBaudRate);
+        if (!isResponding()) {
+            negotiateOpen();
+        }
+    }
 
+    /**
+     * @return the current baud rate of the communication
+     */
+    public int getBaudRate() {
+        return commandProcessor.getBaudRate();
+    }
+
+    private boolean isResponding() {
+        commandProcessor.flushInput();
+        try {
+            return commandProcessor.exchange(Command.GET_ENROLL_COUNT).ack();
+        } catch (ResponsePacketParingException e) {
+            return false;
+        }
+    }
 
     /**
-     * Gets the number of enrolled fingerprints
+     * Gets the number of enrolled fingerprints. Answered locally while the slot occupancy is synced.
      *
      * @return The number of enrolled fingerprints or -1 if any error has occurred
      */
     public int getEnrollCount() {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.GET_ENROLL_COUNT);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.getParameter();
+        if (slots.isSynced()) {
+            return slots.count();
+        }
+        final PacketCodec response = commandProcessor.exchange(Command.GET_ENROLL_COUNT);
+        if (response.isSuccess()) {
+            return response.getParameter();
         } else {
             return -1;
         }
     }
 
     /**
-     * Checks whether the ID of fingerprint is in use
+     * Checks whether the ID of fingerprint is in use. Answered locally while the slot occupancy is synced.
      *
      * @param id specified id of the fingerprint
      * @return true if ID is in use or false if not
@@ -127,14 +446,51 @@ public class FingerprintScanner {
      */
     public boolean checkEnrolled(final int id) throws CommandProcessingException, IllegalArgumentException {
         checkIdRange(id);
-        final ResponsePacket responsePacket = commandProcessor.process(Command.CHECK_ENROLLED, id);
-        if (responsePacket.isSuccess() || responsePacket.getError() == Error.NACK_IS_NOT_USED) {
-            return responsePacket.ack();
+        if (slots.isSynced()) {
+            return slots.isOccupied(id);
+        }
+        return queryEnrolled(id);
+    }
+
+    private boolean queryEnrolled(final int id) throws CommandProcessingException {
+        final PacketCodec response = commandProcessor.exchange(Command.CHECK_ENROLLED, id);
+        if (response.isSuccess() || response.getError() == Error.NACK_IS_NOT_USED) {
+            return response.ack();
         } else {
-            throw new CommandProcessingException(responsePacket.getError());
+            throw new CommandProcessingException(response.getError());
         }
     }
 
+    /**
+     * Finds the lowest free ID of the database
+     *
+     * @return free ID (0-19) or -1 if the database is full
+     * @throws CommandProcessingException if the slot occupancy had to be read and any error has occurred
+     */
+    public int findFreeId() throws CommandProcessingException {
+        if (!slots.isSynced()) {
+            resyncSlots();
+        }
+        return slots.firstFree();
+    }
+
+    /**
+     * Reads the occupancy of all database slots from the device. Required only when
+     * the database may have been changed by another host.
+     *
+     * @throws CommandProcessingException if any error has occurred
+     */
+    public void resyncSlots() throws CommandProcessingException {
+        slots.markUnsynced();
+        int bits = 0;
+        for (int id = 0; id < SlotOccupancy.SLOTS; id++) {
+            if (queryEnrolled(id)) {
+                bits |= 1 << id;
+            }
+        }
+        slots.reset(bits);
+    }
+
     /**
      * Starts the enrollments process
      *
@@ -148,11 +504,16 @@ public class FingerprintScanner {
         if (checkEnrolled(id)) {
             throw new CommandProcessingException(Error.NACK_IS_ALREADY_USED);
         }
-        final ResponsePacket responsePacket = commandProcessor.process(Command.ENROLL_START, id);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.ack();
+        templateCache.invalidate(getPortName(), id);
+        enrollingId = id;
+        final PacketCodec response = exchangeMutating(Command.ENROLL_START, id);
+        if (response.isSuccess()) {
+            return response.ack();
         }
-        throw new CommandProcessingException(responsePacket.getError());
+        if (response.getError() == Error.NACK_IS_ALREADY_USED) {
+            slots.occupy(id); // enrolled by another host
+        }
+        throw new CommandProcessingException(response.getError());
     }
 
     /**
@@ -166,11 +527,45 @@ public class FingerprintScanner {
      * @throws CommandProcessingException if finger is not pressed
      */
     public boolean captureFinger(boolean highQuality) throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.CAPTURE_FINGER, highQuality ? 1 : 0);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.ack();
+        final PacketCodec response = commandProcessor.exchange(Command.CAPTURE_FINGER, highQuality ? 1 : 0);
+        if (response.isSuccess()) {
+            return response.ack();
         }
-        throw new CommandProcessingException(responsePacket.getError());
+        throw new CommandProcessingException(response.getError());
+    }
+
+    /**
+     * Captures the currently pressed finger and checks the quality of the image on the host.
+     * A rejected image is captured again, while the finger stays on the sensor.
+     *
+     * @param highQuality true for high quality image but slower processing,
+     *                    or false for low quality image but faster processing
+     * @param gate        gate assessing the downloaded image
+     * @param maxAttempts maximal number of the captures
+     * @return quality of the accepted image
+     * @throws IllegalArgumentException   if {@code maxAttempts} is not positive
+     * @throws CommandProcessingException with {@link Error#NACK_BAD_FINGER} if no image was accepted,
+     *                                    or if finger is not pressed or any error has occurred
+     */
+    public ImageQuality captureFinger(final boolean highQuality,
+                                      final ImageQualityGate gate,
+                                      final int maxAttempts) throws CommandProcessingException {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        if (gateImage == null) {
+            gateImage = new byte[IMAGE_SIZE];
+        }
+        final byte[] image = gateImage;
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            captureFinger(highQuality);
+            getImage(ByteBuffer.wrap(image), TransferProgressListener.NONE);
+            final ImageQuality quality = gate.assess(image);
+            if (quality.isAccepted()) {
+                return quality;
+            }
+        }
+        throw new CommandProcessingException(Error.NACK_BAD_FINGER);
     }
 
     /**
@@ -180,11 +575,11 @@ public class FingerprintScanner {
      * @throws CommandProcessingException if enroll failed or bad finger was pressed
      */
     public boolean enroll1() throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.ENROLL_1);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.ack();
+        final PacketCodec response = commandProcessor.exchange(Command.ENROLL_1);
+        if (response.isSuccess()) {
+            return response.ack();
         }
-        throw new CommandProcessingException(responsePacket.getError());
+        throw new CommandProcessingException(response.getError());
     }
 
     /**
@@ -194,11 +589,11 @@ public class FingerprintScanner {
      * @throws CommandProcessingException if enroll failed or bad finger was pressed
      */
     public boolean enroll2() throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.ENROLL_2);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.ack();
+        final PacketCodec response = commandProcessor.exchange(Command.ENROLL_2);
+        if (response.isSuccess()) {
+            return response.ack();
         }
-        throw new CommandProcessingException(responsePacket.getError());
+        throw new CommandProcessingException(response.getError());
     }
 
     /**
@@ -208,11 +603,21 @@ public class FingerprintScanner {
      * @throws CommandProcessingException if enroll failed or bad finger was pressed
      */
     public boolean enroll3() throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.ENROLL_3);
-        if (responsePacket.ack()) {
-            return responsePacket.ack();
+        final int id = enrollingId;
+        enrollingId = -1;
+        final PacketCodec response = exchangeMutating(Command.ENROLL_3, 0);
+        if (id >= 0) {
+            templateCache.invalidate(getPortName(), id);
+        }
+        if (response.ack()) {
+            if (id >= 0) {
+                slots.occupy(id);
+            } else {
+                slots.markUnsynced();
+            }
+            return response.ack();
         }
-        throw new CommandProcessingException(responsePacket.getError());
+        throw new CommandProcessingException(response.getError());
     }
 
     /**
@@ -225,11 +630,15 @@ public class FingerprintScanner {
      */
     public boolean deleteId(final int id) throws IllegalArgumentException, CommandProcessingException {
         checkIdRange(id);
-        final ResponsePacket responsePacket = commandProcessor.process(Command.DELETE_ID, id);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.ack();
+        templateCache.invalidate(getPortName(), id);
+        final PacketCodec response = exchangeMutating(Command.DELETE_ID, id);
+        if (response.isSuccess() || response.getError() == Error.NACK_IS_NOT_USED) {
+            slots.release(id);
+        }
+        if (response.isSuccess()) {
+            return response.ack();
         } else {
-            throw new CommandProcessingException(responsePacket.getError());
+            throw new CommandProcessingException(response.getError());
         }
 
     }
@@ -241,25 +650,209 @@ public class FingerprintScanner {
      * @throws CommandProcessingException if the database is empty
      */
     public boolean deleteAll() throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.DELETE_ALL);
-        if (responsePacket.isSuccess()) {
-            return responsePacket.ack();
+        templateCache.invalidate(getPortName());
+        final PacketCodec response = exchangeMutating(Command.DELETE_ALL, 0);
+        if (response.isSuccess() || response.getError() == Error.NACK_DB_IS_EMPTY) {
+            slots.releaseAll();
+        }
+        if (response.isSuccess()) {
+            return response.ack();
         } else {
-            throw new CommandProcessingException(responsePacket.getError());
+            throw new CommandProcessingException(response.getError());
+        }
+    }
+
+    /**
+     * Executes the commands of the batch one after another and stores their responses
+     * into the batch. Not acknowledged commands do not stop the batch. The slot occupancy
+     * and the template cache are updated from the results.
+     *
+     * @param batch batch to execute
+     * @throws ResponsePacketParingException if a response was lost; the batch keeps the results
+     *                                       of the commands completed before
+     */
+    public void execute(final CommandBatch batch) {
+        boolean mutating = false;
+        for (int i = 0; i < batch.size(); i++) {
+            final Command command = batch.getCommand(i);
+            if (command == Command.DELETE_ID) {
+                templateCache.invalidate(getPortName(), batch.getCommandParameter(i));
+                mutating = true;
+            } else if (command == Command.DELETE_ALL) {
+                templateCache.invalidate(getPortName());
+                mutating = true;
+            }
+        }
+        try {
+            commandProcessor.exchangeAll(batch);
+        } catch (RuntimeException e) {
+            if (mutating) {
+                slots.markUnsynced();
+            }
+            throw e;
+        } finally {
+            for (int i = 0; i < batch.getCompleted(); i++) {
+                updateSlots(batch.getCommand(i), batch.getCommandParameter(i), batch.getError(i));
+            }
+        }
+    }
+
+    private void updateSlots(final Command command, final int id, final Error error) {
+        switch (command) {
+            case CHECK_ENROLLED:
+                if (error == Error.NO_ERROR) {
+                    slots.occupy(id);
+                } else if (error == Error.NACK_IS_NOT_USED) {
+                    slots.release(id);
+                }
+                break;
+            case DELETE_ID:
+                if (error == Error.NO_ERROR || error == Error.NACK_IS_NOT_USED) {
+                    slots.release(id);
+                }
+                break;
+            case DELETE_ALL:
+                if (error == Error.NO_ERROR || error == Error.NACK_DB_IS_EMPTY) {
+                    slots.releaseAll();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Downloads the captured fingerprint image
+     *
+     * @return bytes of the image
+     * @throws CommandProcessingException if no image was captured or any error has occurred
+     */
+    public byte[] getImage() throws CommandProcessingException {
+        final byte[] image = new byte[IMAGE_SIZE];
+        getImage(ByteBuffer.wrap(image), TransferProgressListener.NONE);
+        return image;
+    }
+
+    /**
+     * Downloads the captured fingerprint image directly into the {@code destination}
+     *
+     * @param destination buffer with at least {@link #IMAGE_SIZE} bytes remaining
+     * @param listener    listener of the download progress
+     * @throws CommandProcessingException if no image was captured or any error has occurred
+     * @throws IllegalArgumentException   if the {@code destination} has not enough bytes remaining
+     */
+    public void getImage(final ByteBuffer destination,
+                         final TransferProgressListener listener) throws CommandProcessingException {
+        download(Command.GET_IMAGE, destination, listener);
+    }
+
+    /**
+     * Downloads the captured fingerprint image in chunks into the {@code destination}.
+     * The written bytes are unverified until the method returns normally.
+     *
+     * @param destination stream the image is written to
+     * @param listener    listener of the download progress
+     * @throws CommandProcessingException if no image was captured or any error has occurred
+     * @throws IOException                if writing to the {@code destination} failed
+     */
+    public void getImage(final OutputStream destination,
+                         final TransferProgressListener listener) throws CommandProcessingException, IOException {
+        download(Command.GET_IMAGE, destination, listener);
+    }
+
+    /**
+     * Captures and downloads the raw fingerprint image directly into the {@code destination}
+     *
+     * @param destination buffer with at least {@link #RAW_IMAGE_SIZE} bytes remaining
+     * @param listener    listener of the download progress
+     * @throws CommandProcessingException if any error has occurred
+     * @throws IllegalArgumentException   if the {@code destination} has not enough bytes remaining
+     */
+    public void getRawImage(final ByteBuffer destination,
+                            final TransferProgressListener listener) throws CommandProcessingException {
+        download(Command.GET_RAW_IMAGE, destination, listener);
+    }
+
+    /**
+     * Captures and downloads the raw fingerprint image in chunks into the {@code destination}.
+     * The written bytes are unverified until the method returns normally.
+     *
+     * @param destination stream the image is written to
+     * @param listener    listener of the download progress
+     * @throws CommandProcessingException if any error has occurred
+     * @throws IOException                if writing to the {@code destination} failed
+     */
+    public void getRawImage(final OutputStream destination,
+                            final TransferProgressListener listener) throws CommandProcessingException, IOException {
+        download(Command.GET_RAW_IMAGE, destination, listener);
+    }
+
+    private void download(final Command command,
+                          final ByteBuffer destination,
+                          final TransferProgressListener listener) throws CommandProcessingException {
+        final int size = command.getDataPacketSize() - DataPacket.OVERHEAD;
+        if (destination.remaining() < size) {
+            throw new IllegalArgumentException("destination has less than " + size + " bytes remaining");
+        }
+        try {
+            download(command, new OutputStream() {
+                @Override
+                public void write(final int b) {
+                    destination.put((byte) b);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) {
+                    destination.put(b, off, len);
+                }
+            }, listener);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // never thrown by the buffer
         }
     }
 
-//    public byte[] getImage() throws CommandProcessingException {
-//        final ResponsePacket responsePacket = commandProcessor.process(Command.GET_RAW_IMAGE);
-//        if (responsePacket.isSuccess() && responsePacket.ack()) {
-//            return responsePacket.getDataBytes();
-//        } else {
-//            throw new CommandProcessingException(responsePacket.getError());
-//        }
-//    }
+    private void download(final Command command,
+                          final OutputStream destination,
+                          final TransferProgressListener listener) throws CommandProcessingException, IOException {
+        final PacketCodec response = commandProcessor.stream(command, 0, destination, listener);
+        if (!response.isSuccess() || !response.ack()) {
+            throw new CommandProcessingException(response.getError());
+        }
+    }
 
+    /**
+     * Downloads the template of the specified {@code id}. Templates are cached on the host,
+     * so repeated downloads of the same template do not use the serial port.
+     *
+     * @param id specified id of the fingerprint
+     * @return bytes of the template
+     * @throws IllegalArgumentException   if {@code id} is not between 0-19
+     * @throws CommandProcessingException if the specified id is not used or any error has occurred
+     */
     public byte[] getTemplate(final int id) throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.GET_TEMPLATE);
+        checkIdRange(id);
+        final byte[] cached = templateCache.get(getPortName(), id);
+        if (cached != null) {
+            return cached;
+        }
+        final ResponsePacket responsePacket = commandProcessor.process(Command.GET_TEMPLATE, id);
+        if (responsePacket.isSuccess() && responsePacket.ack()) {
+            final byte[] template = responsePacket.getDataBytes();
+            templateCache.put(getPortName(), id, template);
+            return template;
+        } else {
+            throw new CommandProcessingException(responsePacket.getError());
+        }
+    }
+
+    /**
+     * Makes the template of the captured fingerprint for transmission
+     *
+     * @return bytes of the template
+     * @throws CommandProcessingException if no finger was captured or any error has occurred
+     */
+    public byte[] makeTemplate() throws CommandProcessingException {
+        final ResponsePacket responsePacket = commandProcessor.process(Command.MAKE_TEMPLATE);
         if (responsePacket.isSuccess() && responsePacket.ack()) {
             return responsePacket.getDataBytes();
         } else {
@@ -267,26 +860,181 @@ public class FingerprintScanner {
         }
     }
 
+    /**
+     * Checks the template against all enrolled fingerprints
+     *
+     * @param template bytes of the template, e.g. from {@link #makeTemplate()}
+     * @return The specified ID of fingerprint (0-19)
+     * @throws CommandProcessingException if failed to find the fingerprint in the database
+     */
+    public int identifyTemplate(final byte[] template) throws CommandProcessingException {
+        final PacketCodec response = commandProcessor.exchange(Command.IDENTIFY_TEMPLATE_1_N);
+        if (!response.isSuccess() || !response.ack()) {
+            throw new CommandProcessingException(response.getError());
+        }
+        final PacketCodec dataResponse = commandProcessor.sendData(template);
+        if (dataResponse.isSuccess() && dataResponse.ack()) {
+            return dataResponse.getParameter();
+        }
+        throw new CommandProcessingException(dataResponse.getError());
+    }
+
+    /**
+     * Checks the captured finger against the fingerprint of the claimed ID
+     *
+     * @param id claimed ID of the fingerprint
+     * @return true if the finger matches or false if not
+     * @throws IllegalArgumentException   if {@code id} is not between 0-19
+     * @throws CommandProcessingException if the ID is not used, no finger was captured or any error has occurred
+     */
+    public boolean verify(final int id) throws CommandProcessingException {
+        return verified(tryVerify(id));
+    }
+
+    /**
+     * Checks the captured finger against the fingerprint of the claimed ID without throwing on a miss
+     *
+     * @param id claimed ID of the fingerprint
+     * @return the claimed ID or the error, e.g. {@link Error#NACK_VERIFY_FAILED}
+     * @throws IllegalArgumentException if {@code id} is not between 0-19
+     */
+    public MatchResult tryVerify(final int id) {
+        checkIdRange(id);
+        if (isNotUsed(id)) {
+            return MatchResult.failed(Error.NACK_IS_NOT_USED);
+        }
+        return matchOf(commandProcessor.exchange(Command.VERIFY_1_1, id), id);
+    }
+
+    /**
+     * Checks the template against the fingerprint of the claimed ID
+     *
+     * @param template bytes of the template, e.g. from {@link #makeTemplate()}
+     * @param id       claimed ID of the fingerprint
+     * @return true if the template matches or false if not
+     * @throws IllegalArgumentException   if {@code id} is not between 0-19
+     * @throws CommandProcessingException if the ID is not used or any error has occurred
+     */
+    public boolean verifyTemplate(final byte[] template, final int id) throws CommandProcessingException {
+        checkIdRange(id);
+        if (isNotUsed(id)) {
+            throw new CommandProcessingException(Error.NACK_IS_NOT_USED);
+        }
+        final PacketCodec response = commandProcessor.exchange(Command.VERIFY_TEMPLATE_1_1, id);
+        if (!response.isSuccess() || !response.ack()) {
+            throw new CommandProcessingException(response.getError());
+        }
+        return verified(matchOf(commandProcessor.sendData(template), id));
+    }
+
+    /**
+     * Captures the pressed finger in low quality and checks it against the fingerprint of
+     * the claimed ID. An unused ID is rejected before capturing while the slot occupancy
+     * is synced, so the decision costs at most two round-trips.
+     *
+     * @param id claimed ID of the fingerprint
+     * @return true if the finger matches or false if not
+     * @throws IllegalArgumentException   if {@code id} is not between 0-19
+     * @throws CommandProcessingException if the ID is not used, the finger is not pressed or any error has occurred
+     */
+    public boolean captureAndVerify(final int id) throws CommandProcessingException {
+        return verified(tryCaptureAndVerify(id));
+    }
+
+    /**
+     * Captures the pressed finger in low quality and checks it against the fingerprint of
+     * the claimed ID like {@link #captureAndVerify(int)}, without throwing on a miss
+     *
+     * @param id claimed ID of the fingerprint
+     * @return the claimed ID or the error, e.g. {@link Error#NACK_VERIFY_FAILED}
+     * or {@link Error#NACK_FINGER_IS_NOT_PRESSED}
+     * @throws IllegalArgumentException if {@code id} is not between 0-19
+     */
+    public MatchResult tryCaptureAndVerify(final int id) {
+        checkIdRange(id);
+        if (isNotUsed(id)) {
+            return MatchResult.failed(Error.NACK_IS_NOT_USED);
+        }
+        return captureAndMatch(false, Command.VERIFY_1_1, id);
+    }
+
+    // answers unused IDs locally while the slot occupancy is synced
+    private boolean isNotUsed(final int id) {
+        return slots.isSynced() && !slots.isOccupied(id);
+    }
+
+    private static boolean verified(final MatchResult result) throws CommandProcessingException {
+        if (result.isMatch()) {
+            return true;
+        }
+        if (result.getError() == Error.NACK_VERIFY_FAILED) {
+            return false;
+        }
+        throw new CommandProcessingException(result.getError());
+    }
+
+    /**
+     * Uploads the template to the specified {@code id} and caches it
+     *
+     * @param template       bytes of the template
+     * @param id             specified id of the fingerprint
+     * @param duplicateCheck true if the device should check that the template is not enrolled yet
+     * @throws IllegalArgumentException   if {@code id} is not between 0-19
+     * @throws CommandProcessingException if any error has occurred
+     */
     public void setTemplate(final byte[] template,
                             final int id,
                             final boolean duplicateCheck) throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.process(Command.SET_TEMPLATE, id);
-        if (responsePacket.isSuccess() && responsePacket.ack()) {
+        checkIdRange(id);
+        templateCache.invalidate(getPortName(), id);
+        final PacketCodec response = exchangeMutating(Command.SET_TEMPLATE,
+                duplicateCheck ? id : id | SKIP_DUPLICATE_CHECK);
+        if (response.isSuccess() && response.ack()) {
             sendData(template);
+            slots.occupy(id);
+            templateCache.put(getPortName(), id, template);
         } else {
-            throw new CommandProcessingException(responsePacket.getError());
+            throw new CommandProcessingException(response.getError());
         }
     }
 
     private void sendData(final byte[] data) throws CommandProcessingException {
-        final ResponsePacket responsePacket = commandProcessor.sendData(data);
-        if (!responsePacket.isSuccess() || !responsePacket.ack()) {
-            throw new CommandProcessingException(responsePacket.getError());
+        final PacketCodec response;
+        try {
+            response = commandProcessor.sendData(data);
+        } catch (RuntimeException e) {
+            slots.markUnsynced(); // the device may or may not have stored the data
+            throw e;
+        }
+        if (!response.isSuccess() || !response.ack()) {
+            throw new CommandProcessingException(response.getError());
+        }
+    }
+
+    /**
+     * Processing command changing the database. If the response is lost the outcome
+     * is unknown, so the slot occupancy is no longer trusted.
+     */
+    private PacketCodec exchangeMutating(final Command command, final int parameter) {
+        try {
+            return commandProcessor.exchange(command, parameter);
+        } catch (RuntimeException e) {
+            slots.markUnsynced();
+            throw e;
+        }
+    }
+
+    private static void checkBaudRate(final int baudRate) {
+        for (final int supported : BAUD_RATES) {
+            if (supported == baudRate) {
+                return;
+            }
         }
+        throw new IllegalArgumentException("Baud rate must be 9600, 19200, 38400, 57600 or 115200");
     }
 
     private void checkIdRange(final int id) {
-        if (id < 0 || id > 19) {
+        if (id < 0 || id >= SlotOccupancy.SLOTS) {
             throw new IllegalArgumentException("id is not between 0-19");
         }
     }
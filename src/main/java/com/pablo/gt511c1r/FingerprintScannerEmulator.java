@@ -0,0 +1,900 @@
+package com.pablo.gt511c1r;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process emulator of GT-511C1R exposed as a {@link SerialTransport}, for testing and
+ * benchmarking without hardware. It emulates:
+ * <ul>
+ * <li>the 20 slots database and all database commands with their NACK codes,</li>
+ * <li>a virtual finger placed with {@link #placeFinger(int, FingerCondition)}, capture,
+ * 1:1 and 1:N matching of captures and templates,</li>
+ * <li>the enrollment state machine including {@link Error#NACK_TURN_ERR},</li>
+ * <li>template, image and device info data packets,</li>
+ * <li>the device baud rate; bytes sent at a different host baud rate are lost.</li>
+ * </ul>
+ * Templates are derived deterministically from the finger ID, see {@link #templateOf(int)}.
+ * <p>
+ * Latency model: a response becomes readable after the command was transmitted, the
+ * device processed it (a fixed time per command) and the response was transmitted at
+ * the device baud rate (10 bits per byte). The modelled time is always accumulated in
+ * {@link #getSimulatedNanos()}; the {@code timeScale} decides how much of it is waited
+ * for in real time (0 - responses are readable immediately, 1 - real device timing).
+ * <p>
+ * Thread safe.
+ */
+public class FingerprintScannerEmulator implements SerialTransport {
+
+    /**
+     * Condition of the virtual finger on the sensor
+     */
+    public enum FingerCondition {
+        /**
+         * Matches with low and high quality captures
+         */
+        GOOD,
+        /**
+         * Matches only with high quality captures
+         */
+        MARGINAL,
+        /**
+         * Rejected with {@link Error#NACK_BAD_FINGER}
+         */
+        SMUDGED
+    }
+
+    public static final int TEMPLATE_SIZE = Command.GET_TEMPLATE.getDataPacketSize() - DataPacket.OVERHEAD;
+    public static final int IMAGE_WIDTH = 240;
+    public static final int IMAGE_HEIGHT = 216;
+
+    private static final int SLOTS = SlotOccupancy.SLOTS;
+    private static final int DEFAULT_BAUD_RATE = 9600;
+    private static final int[] BAUD_RATES = {9600, 19200, 38400, 57600, 115200};
+    private static final int BITS_PER_BYTE = 10;
+    private static final int FINGER_NOT_PRESSED = 0x1012;
+    private static final int SKIP_DUPLICATE_CHECK_MASK = 0xFFFF0000;
+
+    private static final Map<Command, Long> PROCESSING_MICROS = new EnumMap<>(Command.class);
+
+    static {
+        PROCESSING_MICROS.put(Command.OPEN, 10_000L);
+        PROCESSING_MICROS.put(Command.CMOS_LED, 30_000L);
+        PROCESSING_MICROS.put(Command.IS_PRESS_FINGER, 5_000L);
+        PROCESSING_MICROS.put(Command.ENROLL_1, 400_000L);
+        PROCESSING_MICROS.put(Command.ENROLL_2, 400_000L);
+        PROCESSING_MICROS.put(Command.ENROLL_3, 500_000L);
+        PROCESSING_MICROS.put(Command.VERIFY_1_1, 60_000L);
+        PROCESSING_MICROS.put(Command.VERIFY_TEMPLATE_1_1, 60_000L);
+        PROCESSING_MICROS.put(Command.MAKE_TEMPLATE, 100_000L);
+        PROCESSING_MICROS.put(Command.GET_RAW_IMAGE, 300_000L);
+        PROCESSING_MICROS.put(Command.DELETE_ID, 20_000L);
+        PROCESSING_MICROS.put(Command.DELETE_ALL, 50_000L);
+        PROCESSING_MICROS.put(Command.SET_TEMPLATE, 20_000L);
+    }
+
+    private static final long DEFAULT_PROCESSING_MICROS = 2_000;
+    private static final long CAPTURE_LOW_QUALITY_MICROS = 250_000;
+    private static final long CAPTURE_HIGH_QUALITY_MICROS = 600_000;
+    private static final long IDENTIFY_BASE_MICROS = 50_000;
+    private static final long IDENTIFY_PER_TEMPLATE_MICROS = 10_000;
+
+    // Bytes of a response waiting to be read by the host
+    private static final class Chunk {
+        private final byte[] bytes;
+        private final long startNanos;
+        private final long nanosPerByte;
+        private int position;
+
+        private Chunk(final byte[] bytes, final long startNanos, final long nanosPerByte) {
+            this.bytes = bytes;
+            this.startNanos = startNanos;
+            this.nanosPerByte = nanosPerByte;
+        }
+
+        private int available(final long now) {
+            if (nanosPerByte == 0) {
+                return bytes.length - position;
+            }
+            final long transmitted = now < startNanos ? 0 : (now - startNanos) / nanosPerByte;
+            return (int) Math.min(bytes.length, transmitted) - position;
+        }
+
+        private long nanosUntilNextByte(final long now) {
+            return startNanos + (position + 1) * nanosPerByte - now;
+        }
+    }
+
+    private final String name;
+    private final double timeScale;
+    private final Object lock = new Object();
+
+    // host side of the link
+    private boolean open;
+    private int hostBaudRate = DEFAULT_BAUD_RATE;
+    private int readTimeout = 1000;
+
+    // device state
+    private int deviceBaudRate = DEFAULT_BAUD_RATE;
+    private final byte[][] database = new byte[SLOTS][];
+    private boolean ledOn;
+    private int fingerId = -1;
+    private FingerCondition fingerCondition = FingerCondition.GOOD;
+    private byte[] capturedTemplate;
+    private int capturedFingerId = -1;
+    private FingerCondition capturedCondition;
+    private int enrollId = -1;
+    private int enrollStage;
+    private int enrollFingerId = -1;
+    private Command awaitingData;
+    private int awaitingParameter;
+
+    // link state
+    private byte[] input = new byte[1024];
+    private int inputLength;
+    private final ArrayDeque<Chunk> output = new ArrayDeque<>();
+    private long deviceBusyUntilNanos;
+    private long simulatedNanos;
+    private long commands;
+    private long lostBytes;
+
+    /**
+     * Emulator answering immediately, while still accumulating the modelled time
+     *
+     * @param name name of the emulated port
+     */
+    public FingerprintScannerEmulator(final String name) {
+        this(name, 0.0);
+    }
+
+    /**
+     * @param name      name of the emulated port
+     * @param timeScale fraction of the modelled time waited for in real time, e.g. 0, 0.1 or 1
+     * @throws IllegalArgumentException if {@code timeScale} is negative
+     */
+    public FingerprintScannerEmulator(final String name, final double timeScale) {
+        if (timeScale < 0) {
+            throw new IllegalArgumentException("timeScale cannot be negative");
+        }
+        this.name = Objects.requireNonNull(name);
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * @param fingerId ID of a finger
+     * @return template the emulator makes of the finger
+     */
+    public static byte[] templateOf(final int fingerId) {
+        final byte[] template = new byte[TEMPLATE_SIZE];
+        new Random(fingerId * 0x9E3779B97F4A7C15L).nextBytes(template);
+        return template;
+    }
+
+    // ---------------------------------------------------------------- emulator control
+
+    /**
+     * Places a finger in good condition on the sensor
+     */
+    public void placeFinger(final int fingerId) {
+        placeFinger(fingerId, FingerCondition.GOOD);
+    }
+
+    public void placeFinger(final int fingerId, final FingerCondition condition) {
+        if (fingerId < 0) {
+            throw new IllegalArgumentException("fingerId cannot be negative");
+        }
+        synchronized (lock) {
+            this.fingerId = fingerId;
+            this.fingerCondition = Objects.requireNonNull(condition);
+        }
+    }
+
+    public void removeFinger() {
+        synchronized (lock) {
+            fingerId = -1;
+        }
+    }
+
+    /**
+     * Stores the template of the finger in the slot, bypassing the serial protocol
+     */
+    public void enroll(final int slot, final int fingerId) {
+        synchronized (lock) {
+            database[slot] = templateOf(fingerId);
+        }
+    }
+
+    public void clearDatabase() {
+        synchronized (lock) {
+            Arrays.fill(database, null);
+        }
+    }
+
+    public int getEnrolledCount() {
+        synchronized (lock) {
+            return enrolledCount();
+        }
+    }
+
+    public boolean isLedOn() {
+        synchronized (lock) {
+            return ledOn;
+        }
+    }
+
+    public int getDeviceBaudRate() {
+        synchronized (lock) {
+            return deviceBaudRate;
+        }
+    }
+
+    /**
+     * Resets the device like a power cycle: the baud rate returns to 9600, the LED is
+     * switched off and the capture and enrollment are lost. The database is kept.
+     */
+    public void powerCycle() {
+        synchronized (lock) {
+            deviceBaudRate = DEFAULT_BAUD_RATE;
+            ledOn = false;
+            capturedTemplate = null;
+            capturedFingerId = -1;
+            enrollStage = 0;
+            awaitingData = null;
+            inputLength = 0;
+            output.clear();
+        }
+    }
+
+    /**
+     * @return modelled time the device spent receiving, processing and answering commands
+     */
+    public long getSimulatedNanos() {
+        synchronized (lock) {
+            return simulatedNanos;
+        }
+    }
+
+    /**
+     * @return number of the command packets processed by the device
+     */
+    public long getCommandCount() {
+        synchronized (lock) {
+            return commands;
+        }
+    }
+
+    /**
+     * @return number of the bytes lost because of a baud rate mismatch
+     */
+    public long getLostBytes() {
+        synchronized (lock) {
+            return lostBytes;
+        }
+    }
+
+    public void resetStatistics() {
+        synchronized (lock) {
+            simulatedNanos = 0;
+            commands = 0;
+            lostBytes = 0;
+        }
+    }
+
+    // ---------------------------------------------------------------- SerialTransport
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean open() {
+        synchronized (lock) {
+            open = true;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean close() {
+        synchronized (lock) {
+            open = false;
+            output.clear();
+            inputLength = 0;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        synchronized (lock) {
+            return open;
+        }
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        synchronized (lock) {
+            hostBaudRate = baudRate;
+        }
+    }
+
+    @Override
+    public int getBaudRate() {
+        synchronized (lock) {
+            return hostBaudRate;
+        }
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        synchronized (lock) {
+            this.readTimeout = readTimeout;
+        }
+    }
+
+    @Override
+    public int getReadTimeout() {
+        synchronized (lock) {
+            return readTimeout;
+        }
+    }
+
+    @Override
+    public int bytesAvailable() {
+        synchronized (lock) {
+            final long now = System.nanoTime();
+            int available = 0;
+            for (final Chunk chunk : output) {
+                available += Math.max(0, chunk.available(now));
+            }
+            return available;
+        }
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        synchronized (lock) {
+            if (!open) {
+                return -1;
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout);
+            int read = 0;
+            while (read < length) {
+                final long now = System.nanoTime();
+                final Chunk chunk = output.peek();
+                if (chunk == null) {
+                    if (timeScale == 0 || !waitUntil(deadline, deadline)) {
+                        break; // nothing is going to arrive before the timeout
+                    }
+                    continue;
+                }
+                final int available = chunk.available(now);
+                if (available > 0) {
+                    final int n = Math.min(available, length - read);
+                    System.arraycopy(chunk.bytes, chunk.position, buffer, offset + read, n);
+                    chunk.position += n;
+                    read += n;
+                    if (chunk.position == chunk.bytes.length) {
+                        output.poll();
+                    }
+                } else if (!waitUntil(now + chunk.nanosUntilNextByte(now), deadline)) {
+                    break;
+                }
+            }
+            return read;
+        }
+    }
+
+    // waits on the lock; returns false if the read timeout elapsed
+    private boolean waitUntil(final long wakeUpNanos, final long deadline) {
+        final long now = System.nanoTime();
+        if (readTimeout > 0 && now >= deadline) {
+            return false;
+        }
+        final long until = readTimeout > 0 ? Math.min(wakeUpNanos, deadline) : wakeUpNanos;
+        final long waitNanos = Math.max(until - now, 1);
+        try {
+            TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        synchronized (lock) {
+            if (!open) {
+                return -1;
+            }
+            final long transmissionNanos = length * nanosPerByte(hostBaudRate);
+            simulatedNanos += transmissionNanos;
+            if (hostBaudRate != deviceBaudRate) {
+                lostBytes += length;
+                return length;
+            }
+            if (inputLength + length > input.length) {
+                input = Arrays.copyOf(input, Math.max(input.length * 2, inputLength + length));
+            }
+            System.arraycopy(buffer, offset, input, inputLength, length);
+            inputLength += length;
+            processInput(System.nanoTime() + scaled(transmissionNanos));
+            lock.notifyAll();
+            return length;
+        }
+    }
+
+    // ---------------------------------------------------------------- device
+
+    private void processInput(final long arrivalNanos) {
+        while (inputLength > 0) {
+            final byte first = input[0];
+            if (first == DataPacket.COMMAND_START_CODE_1 && awaitingData != null) {
+                final int size = dataSizeOf(awaitingData) + DataPacket.OVERHEAD;
+                if (inputLength < size) {
+                    return;
+                }
+                handleDataPacket(arrivalNanos, size);
+                consume(size);
+            } else if (first == 0x55) {
+                if (inputLength < PacketCodec.PACKET_SIZE) {
+                    return;
+                }
+                if (!isValidCommandPacket()) {
+                    consume(1);
+                    continue;
+                }
+                final int parameter = PacketCodec.parameter(input, 0);
+                final byte code = input[8];
+                consume(PacketCodec.PACKET_SIZE);
+                commands++;
+                awaitingData = null;
+                handleCommand(arrivalNanos, commandOf(code), parameter);
+            } else {
+                consume(1); // garbage between packets
+            }
+        }
+    }
+
+    private boolean isValidCommandPacket() {
+        final int checksum = PacketCodec.checksum(input, 0, 10);
+        return input[1] == (byte) 0xAA && input[2] == 0x01 && input[3] == 0x00 && input[9] == 0x00
+                && input[10] == (byte) checksum && input[11] == (byte) (checksum >> 8);
+    }
+
+    private void consume(final int length) {
+        System.arraycopy(input, length, input, 0, inputLength - length);
+        inputLength -= length;
+    }
+
+    private static Command commandOf(final byte code) {
+        for (final Command command : Command.values()) {
+            if (command.getValue() == code && command != Command.ACK && command != Command.NACK) {
+                return command;
+            }
+        }
+        return Command.NOT_SET;
+    }
+
+    private void handleCommand(final long arrivalNanos, final Command command, final int parameter) {
+        final long micros = PROCESSING_MICROS.getOrDefault(command, DEFAULT_PROCESSING_MICROS);
+        switch (command) {
+            case OPEN:
+                if (parameter != 0) {
+                    respond(arrivalNanos, micros, ack(0), dataPacket(deviceInfo()));
+                } else {
+                    respond(arrivalNanos, micros, ack(0));
+                }
+                break;
+            case CLOSE:
+                respond(arrivalNanos, micros, ack(0));
+                break;
+            case CMOS_LED:
+                ledOn = parameter != 0;
+                respond(arrivalNanos, micros, ack(0));
+                break;
+            case CHANGE_BAUD_RATE:
+                if (Arrays.binarySearch(BAUD_RATES, parameter) < 0) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_INVALID_BAUDRATE));
+                } else {
+                    respond(arrivalNanos, micros, ack(0));
+                    deviceBaudRate = parameter; // after the acknowledgement was sent
+                }
+                break;
+            case GET_ENROLL_COUNT:
+                respond(arrivalNanos, micros, ack(enrolledCount()));
+                break;
+            case CHECK_ENROLLED:
+                if (!isSlot(parameter)) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_INVALID_POS));
+                } else if (database[parameter] == null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_IS_NOT_USED));
+                } else {
+                    respond(arrivalNanos, micros, ack(0));
+                }
+                break;
+            case ENROLL_START:
+                enrollStage = 0;
+                if (!isSlot(parameter)) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_INVALID_POS));
+                } else if (enrolledCount() == SLOTS) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_DB_IS_FULL));
+                } else if (database[parameter] != null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_IS_ALREADY_USED));
+                } else {
+                    enrollId = parameter;
+                    enrollStage = 1;
+                    respond(arrivalNanos, micros, ack(0));
+                }
+                break;
+            case ENROLL_1:
+            case ENROLL_2:
+            case ENROLL_3:
+                respond(arrivalNanos, micros, enroll(command.ordinal() - Command.ENROLL_1.ordinal() + 1));
+                break;
+            case IS_PRESS_FINGER:
+                respond(arrivalNanos, micros, ack(isFingerOnSensor() ? 0 : FINGER_NOT_PRESSED));
+                break;
+            case DELETE_ID:
+                if (!isSlot(parameter)) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_INVALID_POS));
+                } else if (database[parameter] == null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_IS_NOT_USED));
+                } else {
+                    database[parameter] = null;
+                    respond(arrivalNanos, micros, ack(0));
+                }
+                break;
+            case DELETE_ALL:
+                if (enrolledCount() == 0) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_DB_IS_EMPTY));
+                } else {
+                    Arrays.fill(database, null);
+                    respond(arrivalNanos, micros, ack(0));
+                }
+                break;
+            case VERIFY_1_1:
+                respond(arrivalNanos, micros, verify(parameter));
+                break;
+            case IDENTIFY_1_N:
+                respond(arrivalNanos, identifyMicros(), identifyCaptured());
+                break;
+            case VERIFY_TEMPLATE_1_1:
+                if (!isSlot(parameter)) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_INVALID_POS));
+                } else if (database[parameter] == null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_IS_NOT_USED));
+                } else {
+                    awaitData(command, parameter);
+                    respond(arrivalNanos, DEFAULT_PROCESSING_MICROS, ack(0));
+                }
+                break;
+            case IDENTIFY_TEMPLATE_1_N:
+                if (enrolledCount() == 0) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_DB_IS_EMPTY));
+                } else {
+                    awaitData(command, parameter);
+                    respond(arrivalNanos, DEFAULT_PROCESSING_MICROS, ack(0));
+                }
+                break;
+            case CAPTURE_FINGER:
+                respond(arrivalNanos, parameter != 0 ? CAPTURE_HIGH_QUALITY_MICROS : CAPTURE_LOW_QUALITY_MICROS,
+                        capture(parameter != 0));
+                break;
+            case MAKE_TEMPLATE:
+                if (capturedTemplate == null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_FINGER_IS_NOT_PRESSED));
+                } else if (capturedCondition == FingerCondition.SMUDGED) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_BAD_FINGER));
+                } else {
+                    respond(arrivalNanos, micros, ack(0), dataPacket(capturedTemplate));
+                }
+                break;
+            case GET_IMAGE:
+                if (capturedTemplate == null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_FINGER_IS_NOT_PRESSED));
+                } else {
+                    respond(arrivalNanos, micros, ack(0),
+                            dataPacket(image(capturedFingerId, capturedCondition, dataSizeOf(Command.GET_IMAGE))));
+                }
+                break;
+            case GET_RAW_IMAGE:
+                respond(arrivalNanos, micros, ack(0), dataPacket(image(isFingerOnSensor() ? fingerId : -1,
+                        fingerCondition, dataSizeOf(Command.GET_RAW_IMAGE))));
+                break;
+            case GET_TEMPLATE:
+                if (!isSlot(parameter)) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_INVALID_POS));
+                } else if (database[parameter] == null) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_IS_NOT_USED));
+                } else {
+                    respond(arrivalNanos, micros, ack(0), dataPacket(database[parameter]));
+                }
+                break;
+            case SET_TEMPLATE:
+                if (!isSlot(parameter & ~SKIP_DUPLICATE_CHECK_MASK)) {
+                    respond(arrivalNanos, DEFAULT_PROCESSING_MICROS, nack(Error.NACK_INVALID_POS));
+                } else {
+                    awaitData(command, parameter);
+                    respond(arrivalNanos, DEFAULT_PROCESSING_MICROS, ack(0));
+                }
+                break;
+            case NOT_SET:
+                respond(arrivalNanos, micros, nack(Error.NACK_INVALID_PARAM));
+                break;
+            default:
+                respond(arrivalNanos, micros, nack(Error.NACK_IS_NOT_SUPPORTED));
+                break;
+        }
+    }
+
+    private void awaitData(final Command command, final int parameter) {
+        awaitingData = command;
+        awaitingParameter = parameter;
+    }
+
+    private void handleDataPacket(final long arrivalNanos, final int size) {
+        final Command command = awaitingData;
+        awaitingData = null;
+        final int checksum = PacketCodec.checksum(input, 0, size - DataPacket.CHECKSUM_SIZE);
+        if (input[1] != (byte) 0xA5 || input[size - 2] != (byte) checksum || input[size - 1] != (byte) (checksum >> 8)) {
+            respond(arrivalNanos, DEFAULT_PROCESSING_MICROS, nack(Error.NACK_COMM_ERR));
+            return;
+        }
+        final byte[] template = Arrays.copyOfRange(input, DataPacket.HEADER_SIZE, size - DataPacket.CHECKSUM_SIZE);
+        final long micros = PROCESSING_MICROS.getOrDefault(command, DEFAULT_PROCESSING_MICROS);
+        switch (command) {
+            case SET_TEMPLATE:
+                final int slot = awaitingParameter & ~SKIP_DUPLICATE_CHECK_MASK;
+                final boolean duplicateCheck = (awaitingParameter & SKIP_DUPLICATE_CHECK_MASK) == 0;
+                if (duplicateCheck && findTemplate(template) >= 0) {
+                    respond(arrivalNanos, micros, nack(Error.NACK_IS_ALREADY_USED));
+                } else {
+                    database[slot] = template;
+                    respond(arrivalNanos, micros, ack(0));
+                }
+                break;
+            case IDENTIFY_TEMPLATE_1_N:
+                final int found = findTemplate(template);
+                respond(arrivalNanos, identifyMicros(), found >= 0 ? ack(found) : nack(Error.NACK_IDENTIFY_FAILED));
+                break;
+            case VERIFY_TEMPLATE_1_1:
+                final boolean verified = Arrays.equals(database[awaitingParameter], template);
+                respond(arrivalNanos, micros, verified ? ack(0) : nack(Error.NACK_VERIFY_FAILED));
+                break;
+            default:
+                respond(arrivalNanos, micros, nack(Error.NACK_COMM_ERR));
+                break;
+        }
+    }
+
+    private byte[] capture(final boolean highQuality) {
+        if (!isFingerOnSensor()) {
+            capturedTemplate = null;
+            return nack(Error.NACK_FINGER_IS_NOT_PRESSED);
+        }
+        capturedFingerId = fingerId;
+        capturedCondition = fingerCondition;
+        if (fingerCondition == FingerCondition.MARGINAL && !highQuality) {
+            capturedTemplate = templateOf(~fingerId); // too poor to match
+        } else {
+            capturedTemplate = templateOf(fingerId);
+        }
+        return ack(0);
+    }
+
+    private byte[] enroll(final int stage) {
+        if (enrollStage != stage) {
+            enrollStage = 0;
+            return nack(Error.NACK_TURN_ERR);
+        }
+        if (capturedTemplate == null) {
+            return nack(Error.NACK_FINGER_IS_NOT_PRESSED);
+        }
+        if (capturedCondition != FingerCondition.GOOD
+                && (capturedCondition == FingerCondition.SMUDGED || !Arrays.equals(capturedTemplate, templateOf(capturedFingerId)))) {
+            capturedTemplate = null;
+            return nack(Error.NACK_BAD_FINGER);
+        }
+        if (stage == 1) {
+            enrollFingerId = capturedFingerId;
+        } else if (enrollFingerId != capturedFingerId) {
+            enrollStage = 0;
+            capturedTemplate = null;
+            return nack(Error.NACK_ENROLL_FAILED);
+        }
+        capturedTemplate = null;
+        if (stage == 3) {
+            database[enrollId] = templateOf(enrollFingerId);
+            enrollStage = 0;
+        } else {
+            enrollStage = stage + 1;
+        }
+        return ack(0);
+    }
+
+    private byte[] verify(final int slot) {
+        if (!isSlot(slot)) {
+            return nack(Error.NACK_INVALID_POS);
+        }
+        if (database[slot] == null) {
+            return nack(Error.NACK_IS_NOT_USED);
+        }
+        if (capturedTemplate == null) {
+            return nack(Error.NACK_FINGER_IS_NOT_PRESSED);
+        }
+        if (capturedCondition == FingerCondition.SMUDGED) {
+            return nack(Error.NACK_BAD_FINGER);
+        }
+        return Arrays.equals(database[slot], capturedTemplate) ? ack(0) : nack(Error.NACK_VERIFY_FAILED);
+    }
+
+    private byte[] identifyCaptured() {
+        if (enrolledCount() == 0) {
+            return nack(Error.NACK_DB_IS_EMPTY);
+        }
+        if (capturedTemplate == null) {
+            return nack(Error.NACK_FINGER_IS_NOT_PRESSED);
+        }
+        if (capturedCondition == FingerCondition.SMUDGED) {
+            return nack(Error.NACK_BAD_FINGER);
+        }
+        final int found = findTemplate(capturedTemplate);
+        return found >= 0 ? ack(found) : nack(Error.NACK_IDENTIFY_FAILED);
+    }
+
+    private long identifyMicros() {
+        return IDENTIFY_BASE_MICROS + IDENTIFY_PER_TEMPLATE_MICROS * enrolledCount();
+    }
+
+    private int findTemplate(final byte[] template) {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (Arrays.equals(database[slot], template)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isFingerOnSensor() {
+        return ledOn && fingerId >= 0;
+    }
+
+    private int enrolledCount() {
+        int count = 0;
+        for (final byte[] template : database) {
+            if (template != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isSlot(final int parameter) {
+        return parameter >= 0 && parameter < SLOTS;
+    }
+
+    private static int dataSizeOf(final Command command) {
+        if (command == Command.SET_TEMPLATE || command == Command.IDENTIFY_TEMPLATE_1_N
+                || command == Command.VERIFY_TEMPLATE_1_1) {
+            return TEMPLATE_SIZE;
+        }
+        return command.getDataPacketSize() - DataPacket.OVERHEAD;
+    }
+
+    private byte[] deviceInfo() {
+        final byte[] info = new byte[dataSizeOf(Command.OPEN)];
+        info[0] = 0x23; // firmware version 20120823
+        info[1] = 0x08;
+        info[2] = 0x12;
+        info[3] = 0x20;
+        info[4] = 0x00; // ISO area max size 0x3800
+        info[5] = 0x38;
+        final Random random = new Random(name.hashCode());
+        for (int i = 8; i < info.length; i++) {
+            info[i] = (byte) random.nextInt(256);
+        }
+        return info;
+    }
+
+    /**
+     * Renders a grayscale image of the finger: ridges of a finger specific orientation and
+     * period inside an elliptic contact area on a white background. Marginal fingers
+     * have low contrast and a small contact area, smudged fingers are blurred to noise.
+     */
+    private static byte[] image(final int fingerId, final FingerCondition condition, final int size) {
+        final byte[] image = new byte[size];
+        Arrays.fill(image, (byte) 0xFF);
+        if (fingerId < 0) {
+            return image;
+        }
+        final Random random = new Random(fingerId);
+        final double angle = random.nextDouble() * Math.PI;
+        final double period = 7 + random.nextDouble() * 3;
+        final double contrast = condition == FingerCondition.GOOD ? 110 : condition == FingerCondition.MARGINAL ? 45 : 8;
+        final double coverage = condition == FingerCondition.MARGINAL ? 0.5 : 0.85;
+        final int width = IMAGE_WIDTH;
+        final int height = Math.min(IMAGE_HEIGHT, size / width);
+        final double radiusX = width / 2.0 * coverage;
+        final double radiusY = height / 2.0 * coverage;
+        final Random noise = new Random(fingerId * 31L + condition.ordinal());
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final double dx = (x - width / 2.0) / radiusX;
+                final double dy = (y - height / 2.0) / radiusY;
+                if (dx * dx + dy * dy > 1) {
+                    continue;
+                }
+                final double phase = (x * Math.cos(angle) + y * Math.sin(angle)) * 2 * Math.PI / period;
+                final double value = 128 + contrast * Math.sin(phase) + noise.nextGaussian() * 12;
+                image[y * width + x] = (byte) Math.max(0, Math.min(255, (int) value));
+            }
+        }
+        return image;
+    }
+
+    // ---------------------------------------------------------------- packets and timing
+
+    private static byte[] ack(final int parameter) {
+        return responsePacket(Command.ACK, parameter);
+    }
+
+    private static byte[] nack(final Error error) {
+        return responsePacket(Command.NACK, 0x1000 | (error.getValue() & 0xFF));
+    }
+
+    private static byte[] responsePacket(final Command response, final int parameter) {
+        final byte[] packet = new byte[PacketCodec.PACKET_SIZE];
+        PacketCodec.encode(packet, 0, response, parameter);
+        return packet;
+    }
+
+    private static byte[] dataPacket(final byte[] data) {
+        final byte[] packet = new byte[data.length + DataPacket.OVERHEAD];
+        packet[0] = DataPacket.COMMAND_START_CODE_1;
+        packet[1] = (byte) 0xA5;
+        packet[2] = 0x01;
+        packet[3] = 0x00;
+        System.arraycopy(data, 0, packet, DataPacket.HEADER_SIZE, data.length);
+        final int checksum = PacketCodec.checksum(packet, 0, packet.length - DataPacket.CHECKSUM_SIZE);
+        packet[packet.length - 2] = (byte) checksum;
+        packet[packet.length - 1] = (byte) (checksum >> 8);
+        return packet;
+    }
+
+    private void respond(final long arrivalNanos, final long processingMicros, final byte[]... packets) {
+        int length = 0;
+        for (final byte[] packet : packets) {
+            length += packet.length;
+        }
+        final byte[] bytes = new byte[length];
+        int position = 0;
+        for (final byte[] packet : packets) {
+            System.arraycopy(packet, 0, bytes, position, packet.length);
+            position += packet.length;
+        }
+        final long processingNanos = TimeUnit.MICROSECONDS.toNanos(processingMicros);
+        final long nanosPerByte = nanosPerByte(deviceBaudRate);
+        simulatedNanos += processingNanos + length * nanosPerByte;
+
+        final long start = Math.max(arrivalNanos, deviceBusyUntilNanos) + scaled(processingNanos);
+        final long scaledNanosPerByte = scaled(nanosPerByte);
+        deviceBusyUntilNanos = start + length * scaledNanosPerByte;
+        output.add(new Chunk(bytes, start, scaledNanosPerByte));
+    }
+
+    private static long nanosPerByte(final int baudRate) {
+        return TimeUnit.SECONDS.toNanos(BITS_PER_BYTE) / baudRate;
+    }
+
+    private long scaled(final long nanos) {
+        return (long) (nanos * timeScale);
+    }
+}
@@ -0,0 +1,178 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
+
+/**
+ * Buffered reader of the packets received from GT-511C1R. Bytes are read from the transport
+ * in bulk into a ring buffer, taking everything already received, so a response and its data
+ * packet usually cost a single read. Packets are assembled across partial reads, and garbage
+ * before a packet is skipped by scanning for its start codes.
+ * <p>
+ * Not thread safe; owned by a {@link CommandProcessor}.
+ */
+final class FrameReader {
+
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+
+    private final SerialTransport transport;
+    private final byte[] ring = new byte[CAPACITY];
+    // positions of the first buffered and the next free byte; they wrap around, only the difference matters
+    private int head;
+    private int tail;
+    private long skippedBytes;
+    private boolean hasDeadline;
+    private long deadlineNanos;
+
+    FrameReader(final SerialTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return number of the bytes skipped while scanning for start codes since the creation
+     */
+    long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Sets the time after which no more reads are started, in {@link System#nanoTime()} units
+     */
+    void setDeadline(final long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        hasDeadline = true;
+    }
+
+    void clearDeadline() {
+        hasDeadline = false;
+    }
+
+    /**
+     * Skips bytes until the buffer starts with the start codes of a packet
+     *
+     * @param startCode1 first byte of the packet
+     * @param startCode2 second byte of the packet
+     * @param limit      maximal number of the bytes to skip
+     * @return number of the skipped bytes
+     * @throws ResponsePacketParingException if no start codes were found within the {@code limit}
+     *                                       or the transport timed out
+     */
+    int seek(final byte startCode1, final byte startCode2, final int limit) {
+        int skipped = 0;
+        while (true) {
+            fill(2);
+            if (ring[head & MASK] == startCode1 && ring[(head + 1) & MASK] == startCode2) {
+                return skipped;
+            }
+            if (skipped == limit) {
+                throw new ResponsePacketParingException("No start codes in " + limit + " bytes");
+            }
+            head++;
+            skipped++;
+            skippedBytes++;
+        }
+    }
+
+    /**
+     * Copies the next {@code length} bytes without consuming them
+     *
+     * @throws ResponsePacketParingException if the transport timed out
+     */
+    void peek(final byte[] destination, final int offset, final int length) {
+        fill(length);
+        final int position = head & MASK;
+        final int first = Math.min(length, CAPACITY - position);
+        System.arraycopy(ring, position, destination, offset, first);
+        System.arraycopy(ring, 0, destination, offset + first, length - first);
+    }
+
+    /**
+     * Consumes buffered bytes
+     *
+     * @param length number of the bytes to consume, at most the number of the buffered bytes
+     */
+    void skip(final int length) {
+        head += Math.min(length, tail - head);
+    }
+
+    /**
+     * Reads exactly {@code length} bytes. Large reads with an empty buffer go directly
+     * to the {@code destination}.
+     *
+     * @throws ResponsePacketParingException if the transport timed out
+     */
+    void read(final byte[] destination, final int offset, final int length) {
+        int read = 0;
+        while (read < length) {
+            final int remaining = length - read;
+            if (tail == head && remaining >= CAPACITY / 2) {
+                checkDeadline(length, read);
+                final int n = transport.read(destination, offset + read, remaining);
+                if (n <= 0) {
+                    throw truncated(length, read);
+                }
+                read += n;
+                continue;
+            }
+            if (tail == head) {
+                fill(Math.min(remaining, CAPACITY / 2));
+            }
+            final int n = Math.min(remaining, tail - head);
+            peek(destination, offset + read, n);
+            head += n;
+            read += n;
+        }
+    }
+
+    /**
+     * Discards the buffered bytes and the bytes waiting in the transport,
+     * e.g. the rest of a corrupted response
+     *
+     * @return number of the discarded bytes
+     */
+    int clear() {
+        int discarded = tail - head;
+        head = tail;
+        int available = transport.bytesAvailable();
+        while (available > 0) {
+            final int n = transport.read(ring, 0, Math.min(available, CAPACITY));
+            if (n <= 0) {
+                break;
+            }
+            discarded += n;
+            available = transport.bytesAvailable();
+        }
+        head = 0;
+        tail = 0;
+        return discarded;
+    }
+
+    /**
+     * Ensures at least {@code length} bytes are buffered. Every read takes all bytes
+     * available in the transport which fit the buffer, not only the missing ones.
+     */
+    private void fill(final int length) {
+        while (tail - head < length) {
+            final int missing = length - (tail - head);
+            final int position = tail & MASK;
+            final int free = Math.min(CAPACITY - (tail - head), CAPACITY - position);
+            final int wanted = Math.min(free, Math.max(missing, transport.bytesAvailable()));
+            checkDeadline(length, tail - head);
+            final int n = transport.read(ring, position, wanted);
+            if (n <= 0) {
+                throw truncated(length, tail - head);
+            }
+            tail += n;
+        }
+    }
+
+    private void checkDeadline(final int required, final int found) {
+        if (hasDeadline && System.nanoTime() - deadlineNanos > 0) {
+            throw new ResponsePacketParingException("Response timed out -> required=" + required + " found=" + found);
+        }
+    }
+
+    private static ResponsePacketParingException truncated(final int required, final int found) {
+        return new ResponsePacketParingException("Truncated packet -> required=" + required + " found=" + found);
+    }
+}
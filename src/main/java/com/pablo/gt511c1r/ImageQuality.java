@@ -0,0 +1,53 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Quality of a captured fingerprint image assessed by an {@link ImageQualityGate}
+ */
+public class ImageQuality {
+
+    private final double contrast;
+    private final double coverage;
+    private final double ridgeClarity;
+    private final boolean accepted;
+
+    ImageQuality(final double contrast, final double coverage, final double ridgeClarity, final boolean accepted) {
+        this.contrast = contrast;
+        this.coverage = coverage;
+        this.ridgeClarity = ridgeClarity;
+        this.accepted = accepted;
+    }
+
+    /**
+     * @return mean standard deviation of the gray levels inside the finger, 0-1
+     */
+    public double getContrast() {
+        return contrast;
+    }
+
+    /**
+     * @return fraction of the image covered by the finger, 0-1
+     */
+    public double getCoverage() {
+        return coverage;
+    }
+
+    /**
+     * @return mean coherence of the ridge orientation inside the finger, 0 for noise and 1 for parallel ridges
+     */
+    public double getRidgeClarity() {
+        return ridgeClarity;
+    }
+
+    /**
+     * @return true if all scores reached the thresholds of the gate
+     */
+    public boolean isAccepted() {
+        return accepted;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImageQuality{contrast=%.3f, coverage=%.3f, ridgeClarity=%.3f, accepted=%s}",
+                contrast, coverage, ridgeClarity, accepted);
+    }
+}
@@ -0,0 +1,136 @@
+package com.pablo.gt511c1r;
+
+import java.util.stream.IntStream;
+
+/**
+ * Scores a captured fingerprint image on the host, so a smudged or partial capture can be
+ * rejected and re-captured before a device-side {@code ENROLL_n} or {@code IDENTIFY_1_N}
+ * is wasted on it.
+ * <p>
+ * The 240x216 grayscale image is split into blocks of 12x12 pixels. Blocks with a gray level
+ * deviation above the background noise belong to the finger. Over those blocks the gate scores
+ * <ul>
+ * <li>contrast: mean deviation of the gray levels,</li>
+ * <li>coverage: fraction of the image covered by the finger,</li>
+ * <li>ridge clarity: mean coherence of the gradient orientation, which is high for parallel
+ * ridges and low for blur and noise.</li>
+ * </ul>
+ * Rows of blocks are scored in parallel. Downloading the image moves about half a megabit
+ * over the serial link (4.5 s at 115200 baud), so the gate pays off only at high baud rates.
+ * <p>
+ * Thread safe.
+ */
+public class ImageQualityGate {
+
+    static final int IMAGE_WIDTH = 240;
+    static final int IMAGE_HEIGHT = FingerprintScanner.IMAGE_SIZE / IMAGE_WIDTH;
+
+    private static final int BLOCK = 12;
+    private static final int BLOCK_COLUMNS = IMAGE_WIDTH / BLOCK;
+    private static final int BLOCK_ROWS = IMAGE_HEIGHT / BLOCK;
+    private static final double FOREGROUND_DEVIATION = 10;
+    private static final double MAX_DEVIATION = 128;
+
+    private static final double DEFAULT_MIN_CONTRAST = 0.15;
+    private static final double DEFAULT_MIN_COVERAGE = 0.2;
+    private static final double DEFAULT_MIN_RIDGE_CLARITY = 0.5;
+
+    private final double minContrast;
+    private final double minCoverage;
+    private final double minRidgeClarity;
+
+    public ImageQualityGate() {
+        this(DEFAULT_MIN_CONTRAST, DEFAULT_MIN_COVERAGE, DEFAULT_MIN_RIDGE_CLARITY);
+    }
+
+    /**
+     * @param minContrast     minimal contrast, 0-1
+     * @param minCoverage     minimal coverage, 0-1
+     * @param minRidgeClarity minimal ridge clarity, 0-1
+     * @throws IllegalArgumentException if any threshold is not between 0-1
+     */
+    public ImageQualityGate(final double minContrast, final double minCoverage, final double minRidgeClarity) {
+        if (!isFraction(minContrast) || !isFraction(minCoverage) || !isFraction(minRidgeClarity)) {
+            throw new IllegalArgumentException("thresholds must be between 0-1");
+        }
+        this.minContrast = minContrast;
+        this.minCoverage = minCoverage;
+        this.minRidgeClarity = minRidgeClarity;
+    }
+
+    /**
+     * @param image image downloaded by {@link FingerprintScanner#getImage()}
+     * @return quality of the image
+     * @throws IllegalArgumentException if the image has not {@link FingerprintScanner#IMAGE_SIZE} bytes
+     */
+    public ImageQuality assess(final byte[] image) {
+        if (image.length != FingerprintScanner.IMAGE_SIZE) {
+            throw new IllegalArgumentException("image must have " + FingerprintScanner.IMAGE_SIZE + " bytes");
+        }
+        final double[] deviations = new double[BLOCK_COLUMNS * BLOCK_ROWS];
+        final double[] coherences = new double[BLOCK_COLUMNS * BLOCK_ROWS];
+        IntStream.range(0, BLOCK_ROWS).parallel().forEach(row -> {
+            for (int column = 0; column < BLOCK_COLUMNS; column++) {
+                scoreBlock(image, row, column, deviations, coherences);
+            }
+        });
+
+        int foreground = 0;
+        double deviationSum = 0;
+        double coherenceSum = 0;
+        for (int i = 0; i < deviations.length; i++) {
+            if (deviations[i] > FOREGROUND_DEVIATION) {
+                foreground++;
+                deviationSum += deviations[i];
+                coherenceSum += coherences[i];
+            }
+        }
+        final double coverage = foreground / (double) deviations.length;
+        final double contrast = foreground == 0 ? 0 : Math.min(1, deviationSum / foreground / MAX_DEVIATION);
+        final double ridgeClarity = foreground == 0 ? 0 : coherenceSum / foreground;
+        return new ImageQuality(contrast, coverage, ridgeClarity,
+                contrast >= minContrast && coverage >= minCoverage && ridgeClarity >= minRidgeClarity);
+    }
+
+    // standard deviation of the gray levels and coherence of the gradient structure tensor of one block
+    private static void scoreBlock(final byte[] image,
+                                   final int row,
+                                   final int column,
+                                   final double[] deviations,
+                                   final double[] coherences) {
+        long sum = 0;
+        long squares = 0;
+        long gxx = 0;
+        long gyy = 0;
+        long gxy = 0;
+        final int top = row * BLOCK;
+        final int left = column * BLOCK;
+        for (int y = top; y < top + BLOCK; y++) {
+            for (int x = left; x < left + BLOCK; x++) {
+                final int value = pixel(image, x, y);
+                sum += value;
+                squares += value * value;
+                final int gx = pixel(image, Math.min(x + 1, IMAGE_WIDTH - 1), y) - pixel(image, Math.max(x - 1, 0), y);
+                final int gy = pixel(image, x, Math.min(y + 1, IMAGE_HEIGHT - 1)) - pixel(image, x, Math.max(y - 1, 0));
+                gxx += gx * gx;
+                gyy += gy * gy;
+                gxy += gx * gy;
+            }
+        }
+        final int pixels = BLOCK * BLOCK;
+        final double mean = sum / (double) pixels;
+        final int block = row * BLOCK_COLUMNS + column;
+        deviations[block] = Math.sqrt(Math.max(0, squares / (double) pixels - mean * mean));
+        final long energy = gxx + gyy;
+        coherences[block] = energy == 0 ? 0
+                : Math.sqrt((double) (gxx - gyy) * (gxx - gyy) + 4.0 * gxy * gxy) / energy;
+    }
+
+    private static int pixel(final byte[] image, final int x, final int y) {
+        return image[y * IMAGE_WIDTH + x] & 0xFF;
+    }
+
+    private static boolean isFraction(final double value) {
+        return value >= 0 && value <= 1;
+    }
+}
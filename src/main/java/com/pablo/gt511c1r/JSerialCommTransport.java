@@ -0,0 +1,108 @@
+package com.pablo.gt511c1r;
+
+import com.fazecast.jSerialComm.SerialPort;
+
+import java.util.Objects;
+
+/**
+ * {@link SerialTransport} of a serial port driven by jSerialComm
+ */
+final class JSerialCommTransport implements SerialTransport {
+
+    private final SerialPort serialPort;
+    // jSerialComm reads and writes from the beginning of an array only
+    private byte[] scratch = new byte[0];
+
+    JSerialCommTransport(final SerialPort serialPort) {
+        this.serialPort = Objects.requireNonNull(serialPort);
+    }
+
+    JSerialCommTransport(final String commPortName,
+                         final int baudRate,
+                         final int readTimeout,
+                         final int writeTimeout) {
+        Objects.requireNonNull(commPortName);
+        serialPort = SerialPort.getCommPort(commPortName);
+        serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, readTimeout, writeTimeout);
+        serialPort.setBaudRate(baudRate);
+    }
+
+    SerialPort getSerialPort() {
+        return serialPort;
+    }
+
+    @Override
+    public String getName() {
+        return serialPort.getSystemPortName();
+    }
+
+    @Override
+    public boolean open() {
+        return serialPort.openPort();
+    }
+
+    @Override
+    public boolean close() {
+        return serialPort.closePort();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return serialPort.isOpen();
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        serialPort.setBaudRate(baudRate);
+    }
+
+    @Override
+    public int getBaudRate() {
+        return serialPort.getBaudRate();
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        serialPort.setComPortTimeouts(SerialPort.TIMEOUT_READ_BLOCKING, readTimeout, serialPort.getWriteTimeout());
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return serialPort.getReadTimeout();
+    }
+
+    @Override
+    public int bytesAvailable() {
+        return serialPort.bytesAvailable();
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        if (offset == 0) {
+            return serialPort.readBytes(buffer, length);
+        }
+        final byte[] scratch = scratch(length);
+        final int read = serialPort.readBytes(scratch, length);
+        if (read > 0) {
+            System.arraycopy(scratch, 0, buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        if (offset == 0) {
+            return serialPort.writeBytes(buffer, length);
+        }
+        final byte[] scratch = scratch(length);
+        System.arraycopy(buffer, offset, scratch, 0, length);
+        return serialPort.writeBytes(scratch, length);
+    }
+
+    private byte[] scratch(final int length) {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        return scratch;
+    }
+}
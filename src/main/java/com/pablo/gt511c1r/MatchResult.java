@@ -0,0 +1,69 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Outcome of an identification or a verification: the matched ID or the error reported
+ * by GT-511C1R. Instances are cached, so returning a result allocates nothing.
+ */
+public final class MatchResult {
+
+    private static final MatchResult[] MATCHES = new MatchResult[SlotOccupancy.SLOTS];
+    private static final MatchResult[] FAILURES = new MatchResult[Error.values().length];
+
+    static {
+        for (int id = 0; id < MATCHES.length; id++) {
+            MATCHES[id] = new MatchResult(id, Error.NO_ERROR);
+        }
+        for (final Error error : Error.values()) {
+            FAILURES[error.ordinal()] = new MatchResult(-1, error);
+        }
+    }
+
+    private final int id;
+    private final Error error;
+
+    private MatchResult(final int id, final Error error) {
+        this.id = id;
+        this.error = error;
+    }
+
+    /**
+     * @param id matched ID (0-19)
+     * @throws IllegalArgumentException if {@code id} is not between 0-19
+     */
+    static MatchResult matched(final int id) {
+        if (id < 0 || id >= MATCHES.length) {
+            throw new IllegalArgumentException("ID must be between 0-" + (MATCHES.length - 1));
+        }
+        return MATCHES[id];
+    }
+
+    /**
+     * @param error error reported instead of a match
+     */
+    static MatchResult failed(final Error error) {
+        return FAILURES[error.ordinal()];
+    }
+
+    public boolean isMatch() {
+        return error == Error.NO_ERROR;
+    }
+
+    /**
+     * @return matched ID (0-19) or -1 if there was no match
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return reason of the miss, e.g. {@link Error#NACK_IDENTIFY_FAILED}, or {@link Error#NO_ERROR} for a match
+     */
+    public Error getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return isMatch() ? "MatchResult{id=" + id + "}" : "MatchResult{error=" + error + "}";
+    }
+}
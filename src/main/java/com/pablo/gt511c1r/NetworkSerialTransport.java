@@ -0,0 +1,399 @@
+package com.pablo.gt511c1r;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link SerialTransport} of GT-511C1R behind a serial-to-TCP bridge, created by
+ * a {@link NetworkTransportHub}. The selector thread of the hub assembles the received
+ * bytes in a buffer of the transport and wakes a blocked reader only when all bytes it
+ * waits for have arrived. Writes go directly to the non-blocking socket; what does not fit
+ * into the socket buffer is written by the selector thread.
+ * <p>
+ * The baud rate of the serial side is configured on the bridge, so {@link #setBaudRate(int)}
+ * only records the rate used to compute response deadlines; keep the rate of the scanner
+ * with {@link FingerprintScanner#FingerprintScanner(SerialTransport)}.
+ * <p>
+ * Thread safe.
+ */
+public class NetworkSerialTransport implements SerialTransport {
+
+    // a whole image data packet fits
+    private static final int CAPACITY = 64 * 1024;
+    private static final int MASK = CAPACITY - 1;
+
+    private final NetworkTransportHub.Loop loop;
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectedCondition = lock.newCondition();
+    private final Condition readableCondition = lock.newCondition();
+    private final byte[] ring = new byte[CAPACITY];
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+
+    // guarded by the lock
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected;
+    private IOException failure;
+    private int head;
+    private int tail;
+    private int wanted;
+    private boolean readPaused;
+
+    private volatile int baudRate;
+    private volatile int readTimeout = 1000;
+
+    NetworkSerialTransport(final NetworkTransportHub.Loop loop,
+                           final String host,
+                           final int port,
+                           final int baudRate,
+                           final int connectTimeoutMillis) {
+        this.loop = loop;
+        this.host = host;
+        this.port = port;
+        this.baudRate = baudRate;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @Override
+    public String getName() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Connects to the bridge, waiting at most the connect timeout
+     *
+     * @return true if connected
+     */
+    @Override
+    public boolean open() {
+        lock.lock();
+        try {
+            if (isOpen()) {
+                return true;
+            }
+            closeChannel();
+            failure = null;
+            head = 0;
+            tail = 0;
+            final SocketChannel socket = SocketChannel.open();
+            channel = socket;
+            socket.configureBlocking(false);
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final boolean immediate = socket.connect(new InetSocketAddress(host, port));
+            loop.execute(() -> register(socket, immediate));
+            long remaining = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+            while (!connected && failure == null && remaining > 0) {
+                remaining = connectedCondition.awaitNanos(remaining);
+            }
+            if (!connected) {
+                closeChannel();
+            }
+            return connected;
+        } catch (IOException e) {
+            failure = e;
+            closeChannel();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closeChannel();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean close() {
+        lock.lock();
+        try {
+            closeChannel();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        lock.lock();
+        try {
+            return connected && failure == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public int bytesAvailable() {
+        lock.lock();
+        try {
+            return tail - head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until {@code length} bytes were received or the read timeout elapsed
+     *
+     * @return number of the bytes read, 0 on timeout, or -1 if the connection is closed and nothing was received
+     */
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        lock.lock();
+        try {
+            final int timeout = readTimeout;
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+            wanted = Math.min(length, CAPACITY);
+            while (tail - head < wanted && connected && failure == null) {
+                if (timeout > 0) {
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    remaining = readableCondition.awaitNanos(remaining);
+                } else {
+                    readableCondition.await();
+                }
+            }
+            wanted = 0;
+            final int n = Math.min(length, tail - head);
+            if (n == 0) {
+                return connected && failure == null ? 0 : -1;
+            }
+            final int position = head & MASK;
+            final int first = Math.min(n, CAPACITY - position);
+            System.arraycopy(ring, position, buffer, offset, first);
+            System.arraycopy(ring, 0, buffer, offset + first, n - first);
+            head += n;
+            if (readPaused) {
+                readPaused = false;
+                loop.execute(() -> updateInterest(SelectionKey.OP_READ, true));
+            }
+            return n;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes directly to the socket; the rest is written by the selector thread
+     *
+     * @return {@code length} or -1 if the connection is closed
+     */
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        lock.lock();
+        try {
+            if (!connected || failure != null) {
+                return -1;
+            }
+            final ByteBuffer source = ByteBuffer.wrap(buffer, offset, length);
+            if (outbound.isEmpty()) {
+                channel.write(source);
+            }
+            if (source.hasRemaining()) {
+                final ByteBuffer rest = ByteBuffer.allocate(source.remaining());
+                rest.put(source);
+                ((Buffer) rest).flip();
+                outbound.add(rest);
+                loop.execute(() -> updateInterest(SelectionKey.OP_WRITE, true));
+            }
+            return length;
+        } catch (IOException e) {
+            fail(e);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- selector thread
+
+    private void register(final SocketChannel socket, final boolean immediate) {
+        lock.lock();
+        try {
+            if (socket != channel || !socket.isOpen()) {
+                return; // closed or timed out meanwhile
+            }
+            key = socket.register(loop.getSelector(), immediate ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if (immediate) {
+                connected = true;
+                connectedCondition.signalAll();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void handle(final SelectionKey selected, final ByteBuffer readBuffer) {
+        try {
+            if (selected.isConnectable()) {
+                finishConnect(selected);
+            }
+            if (selected.isValid() && selected.isReadable()) {
+                receive(selected, readBuffer);
+            }
+            if (selected.isValid() && selected.isWritable()) {
+                flush(selected);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (CancelledKeyException e) {
+            // closed meanwhile
+        }
+    }
+
+    private void finishConnect(final SelectionKey selected) throws IOException {
+        lock.lock();
+        try {
+            if (((SocketChannel) selected.channel()).finishConnect()) {
+                selected.interestOps(SelectionKey.OP_READ);
+                connected = true;
+                connectedCondition.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // reads everything received; only this thread changes the tail
+    private void receive(final SelectionKey selected, final ByteBuffer readBuffer) throws IOException {
+        final SocketChannel socket = (SocketChannel) selected.channel();
+        while (true) {
+            final int free;
+            lock.lock();
+            try {
+                free = CAPACITY - (tail - head);
+                if (free == 0) {
+                    selected.interestOps(selected.interestOps() & ~SelectionKey.OP_READ);
+                    readPaused = true;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // called through Buffer, as the covariant overrides of Java 9 do not exist on Java 8
+            ((Buffer) readBuffer).clear();
+            ((Buffer) readBuffer).limit(Math.min(free, readBuffer.capacity()));
+            final int n = socket.read(readBuffer);
+            if (n < 0) {
+                throw new EOFException("Connection closed by the bridge");
+            }
+            if (n == 0) {
+                return;
+            }
+            ((Buffer) readBuffer).flip();
+            lock.lock();
+            try {
+                while (readBuffer.hasRemaining()) {
+                    final int position = tail & MASK;
+                    final int chunk = Math.min(readBuffer.remaining(), CAPACITY - position);
+                    readBuffer.get(ring, position, chunk);
+                    tail += chunk;
+                }
+                if (wanted > 0 && tail - head >= wanted) {
+                    readableCondition.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void flush(final SelectionKey selected) throws IOException {
+        lock.lock();
+        try {
+            final SocketChannel socket = (SocketChannel) selected.channel();
+            while (!outbound.isEmpty()) {
+                final ByteBuffer head = outbound.peek();
+                socket.write(head);
+                if (head.hasRemaining()) {
+                    return;
+                }
+                outbound.poll();
+            }
+            selected.interestOps(selected.interestOps() & ~SelectionKey.OP_WRITE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateInterest(final int operation, final boolean enabled) {
+        lock.lock();
+        try {
+            if (key != null && key.isValid()) {
+                key.interestOps(enabled ? key.interestOps() | operation : key.interestOps() & ~operation);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(final IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // wakes all waiters; the selection key is cancelled by closing the channel
+    private void closeChannel() {
+        connected = false;
+        outbound.clear();
+        wanted = 0;
+        readPaused = false;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing more to release
+            }
+            channel = null;
+            key = null;
+        }
+        connectedCondition.signalAll();
+        readableCondition.signalAll();
+    }
+}
@@ -0,0 +1,153 @@
+package com.pablo.gt511c1r;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multiplexes the connections of {@link NetworkSerialTransport}s to serial-to-TCP bridges
+ * (ser2net in raw mode and alike) on a few selector threads. The threads connect, read
+ * the received bytes into the buffers of the transports and write what the transports
+ * could not write immediately; no thread is dedicated to a single scanner.
+ * <p>
+ * Thread safe.
+ */
+public class NetworkTransportHub implements Closeable {
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final Loop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates a hub with a single selector thread
+     *
+     * @throws IOException if the selector cannot be opened
+     */
+    public NetworkTransportHub() throws IOException {
+        this(1);
+    }
+
+    /**
+     * @param threads number of the selector threads
+     * @throws IllegalArgumentException if {@code threads} is not positive
+     * @throws IOException              if a selector cannot be opened
+     */
+    public NetworkTransportHub(final int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new Loop(Selector.open(), "gt511c1r-net-" + i);
+        }
+    }
+
+    /**
+     * Creates a transport to a bridge; it connects on {@link SerialTransport#open()}
+     *
+     * @param host     host of the bridge
+     * @param port     TCP port of the bridge
+     * @param baudRate baud rate configured on the serial side of the bridge
+     * @return transport served by one of the selector threads
+     */
+    public NetworkSerialTransport transport(final String host, final int port, final int baudRate) {
+        return transport(host, port, baudRate, DEFAULT_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param host                 host of the bridge
+     * @param port                 TCP port of the bridge
+     * @param baudRate             baud rate configured on the serial side of the bridge
+     * @param connectTimeoutMillis maximal time of connecting on {@link SerialTransport#open()}
+     * @return transport served by one of the selector threads
+     * @throws IllegalArgumentException if {@code connectTimeoutMillis} is not positive
+     */
+    public NetworkSerialTransport transport(final String host,
+                                            final int port,
+                                            final int baudRate,
+                                            final int connectTimeoutMillis) {
+        if (connectTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis must be positive");
+        }
+        final Loop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        return new NetworkSerialTransport(loop, host, port, baudRate, connectTimeoutMillis);
+    }
+
+    /**
+     * Stops the selector threads and closes all connections
+     */
+    @Override
+    public void close() {
+        for (final Loop loop : loops) {
+            loop.stop();
+        }
+    }
+
+    /**
+     * Selector thread; channels are registered and their interest is changed only by this
+     * thread, other threads submit tasks
+     */
+    static final class Loop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private volatile boolean running = true;
+
+        private Loop(final Selector selector, final String name) {
+            this.selector = selector;
+            final Thread thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Selector getSelector() {
+            return selector;
+        }
+
+        void execute(final Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        private void stop() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    for (final SelectionKey key : selector.selectedKeys()) {
+                        ((NetworkSerialTransport) key.attachment()).handle(key, readBuffer);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // the selector is broken, the transports fail below
+            } finally {
+                for (final SelectionKey key : selector.keys()) {
+                    ((NetworkSerialTransport) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // nothing more to release
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
+
+/**
+ * Reusable encoder/decoder of the 12 bytes command and response packets.
+ * One instance is owned by each {@link CommandProcessor}, so encoding a command
+ * and decoding its response does not allocate. Response fields are exposed as
+ * primitive views over the internal response buffer and are valid until the next
+ * response is decoded.
+ * <p>
+ * Not thread safe.
+ */
+final class PacketCodec {
+
+    static final int PACKET_SIZE = 12;
+
+    static final byte START_CODE_1 = 0x55;
+    static final byte START_CODE_2 = (byte) 0xAA;
+    private static final byte DEVICE_ID_1 = 0x01;
+    private static final byte DEVICE_ID_2 = 0x00;
+
+    // Frames of all commands with the parameter 0, indexed by the ordinal of the command
+    private static final byte[][] PARAMETERLESS_FRAMES = precomputeFrames();
+
+    private final byte[] commandFrame = new byte[PACKET_SIZE];
+    private final byte[] responseFrame = new byte[PACKET_SIZE];
+
+    private boolean ack;
+    private int parameter;
+
+    PacketCodec() {
+        commandFrame[0] = START_CODE_1;
+        commandFrame[1] = START_CODE_2;
+        commandFrame[2] = DEVICE_ID_1;
+        commandFrame[3] = DEVICE_ID_2;
+    }
+
+    private static byte[][] precomputeFrames() {
+        final Command[] commands = Command.values();
+        final byte[][] frames = new byte[commands.length][];
+        for (final Command command : commands) {
+            final byte[] frame = new byte[PACKET_SIZE];
+            encode(frame, 0, command, 0);
+            frames[command.ordinal()] = frame;
+        }
+        return frames;
+    }
+
+    /**
+     * Encodes the command packet. The returned array is shared and must not be modified.
+     *
+     * @param command   command of the GT-511C1R
+     * @param parameter parameter of the command
+     * @return frame of the command packet, valid until the next call
+     */
+    byte[] encode(final Command command, final int parameter) {
+        if (parameter == 0) {
+            return PARAMETERLESS_FRAMES[command.ordinal()];
+        }
+        encode(commandFrame, 0, command, parameter);
+        return commandFrame;
+    }
+
+    /**
+     * Encodes the command packet into the {@code buffer} starting at the {@code offset}
+     *
+     * @param buffer    destination buffer, at least {@code offset + 12} bytes long
+     * @param offset    offset of the packet in the buffer
+     * @param command   command of the GT-511C1R
+     * @param parameter parameter of the command
+     */
+    static void encode(final byte[] buffer, final int offset, final Command command, final int parameter) {
+        buffer[offset] = START_CODE_1;
+        buffer[offset + 1] = START_CODE_2;
+        buffer[offset + 2] = DEVICE_ID_1;
+        buffer[offset + 3] = DEVICE_ID_2;
+        buffer[offset + 4] = (byte) parameter;
+        buffer[offset + 5] = (byte) (parameter >> 8);
+        buffer[offset + 6] = (byte) (parameter >> 16);
+        buffer[offset + 7] = (byte) (parameter >> 24);
+        buffer[offset + 8] = command.getValue();
+        buffer[offset + 9] = 0x00;
+        final int checksum = checksum(buffer, offset, 10);
+        buffer[offset + 10] = (byte) checksum;
+        buffer[offset + 11] = (byte) (checksum >> 8);
+    }
+
+    /**
+     * @return buffer the response packet has to be read into before {@link #decode()}
+     */
+    byte[] responseBuffer() {
+        return responseFrame;
+    }
+
+    /**
+     * Validates the response packet in the response buffer and updates the primitive views
+     *
+     * @throws ResponsePacketParingException if the response packet is corrupted
+     */
+    void decode() {
+        decode(responseFrame, 0);
+    }
+
+    /**
+     * Validates the response packet in the {@code buffer} and updates the primitive views
+     *
+     * @param buffer source buffer
+     * @param offset offset of the response packet in the buffer
+     * @throws ResponsePacketParingException if the response packet is corrupted
+     */
+    void decode(final byte[] buffer, final int offset) {
+        check(buffer[offset], START_CODE_1, "COMMAND_START_CODE_1");
+        check(buffer[offset + 1], START_CODE_2, "COMMAND_START_CODE_2");
+        check(buffer[offset + 2], DEVICE_ID_1, "COMMAND_DEVICE_ID_1");
+        check(buffer[offset + 3], DEVICE_ID_2, "COMMAND_DEVICE_ID_2");
+        final byte response = buffer[offset + 8];
+        if (response != Command.ACK.getValue()) {
+            check(response, Command.NACK.getValue(), "ackNak_LOW");
+        }
+        check(buffer[offset + 9], (byte) 0x00, "ackNak_HIGH");
+        final int checksum = checksum(buffer, offset, 10);
+        check(buffer[offset + 10], (byte) checksum, "Checksum_LOW");
+        check(buffer[offset + 11], (byte) (checksum >> 8), "Checksum_HIGH");
+
+        ack = response == Command.ACK.getValue();
+        parameter = parameter(buffer, offset);
+    }
+
+    // Gets a little endian int from the parameter bytes of the packet
+    static int parameter(final byte[] buffer, final int offset) {
+        return (buffer[offset + 4] & 0xFF)
+                | (buffer[offset + 5] & 0xFF) << 8
+                | (buffer[offset + 6] & 0xFF) << 16
+                | (buffer[offset + 7] & 0xFF) << 24;
+    }
+
+    // calculates the checksum from the bytes in the packet
+    static int checksum(final byte[] buffer, final int offset, final int length) {
+        int checksum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            checksum += buffer[i] & 0xFF;
+        }
+        return checksum;
+    }
+
+    private static void check(final byte b, final byte properValue, final String varName) {
+        if (b != properValue) {
+            throw new ResponsePacketParingException(varName + " -> required=" + properValue + " found=" + b);
+        }
+    }
+
+    boolean ack() {
+        return ack;
+    }
+
+    int getParameter() {
+        return parameter;
+    }
+
+    /**
+     * @return error of the last decoded response; the same mapping as {@link ResponsePacket#getError()}
+     */
+    Error getError() {
+        return Error.getInstance((byte) (parameter >> 8), (byte) parameter);
+    }
+
+    boolean isSuccess() {
+        return getError() == Error.NO_ERROR;
+    }
+}
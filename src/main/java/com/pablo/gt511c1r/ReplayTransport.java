@@ -0,0 +1,308 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CorruptedRecordException;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link SerialTransport} playing back the device side of a session recorded by
+ * a {@link WireTraceRecorder}, to reproduce and benchmark recorded traffic offline.
+ * <p>
+ * Every write of the host is matched with the next recorded write; the bytes the device
+ * sent after it are delivered at their recorded delay from the write, divided by the speed.
+ * Recorded read timeouts time out again. Bytes of a response not read before the next write
+ * are dropped, and written bytes differing from the recording are counted, see
+ * {@link #getDivergentBytes()}.
+ * <p>
+ * Not thread safe.
+ */
+public class ReplayTransport implements SerialTransport {
+
+    private final String name;
+    private final double speed;
+    private final byte[] kinds;
+    private final long[] nanos;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] payload;
+
+    private boolean open;
+    private int baudRate = FingerprintScanner.DEFAULT_BAUD_RATE;
+    private int readTimeout = 1000;
+    // next record and the bytes of it already consumed
+    private int record;
+    private int position;
+    // the recorded time which corresponds to the real time, set by every write
+    private long anchorRealNanos;
+    private long anchorTraceNanos;
+    private long divergentBytes;
+
+    /**
+     * Creates a transport replaying at the original speed
+     *
+     * @param file log written by a {@link WireTraceRecorder}
+     * @throws IOException              if the file cannot be read
+     * @throws CorruptedRecordException if the file is not a valid log
+     */
+    public ReplayTransport(final Path file) throws IOException {
+        this(file, 1);
+    }
+
+    /**
+     * @param file  log written by a {@link WireTraceRecorder}
+     * @param speed speed relative to the recording, e.g. 10 for ten times faster,
+     *              or {@link Double#POSITIVE_INFINITY} to deliver the responses without delays
+     * @throws IllegalArgumentException if {@code speed} is not positive
+     * @throws IOException              if the file cannot be read
+     * @throws CorruptedRecordException if the file is not a valid log
+     */
+    public ReplayTransport(final Path file, final double speed) throws IOException {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.name = "replay:" + file.getFileName();
+        this.speed = speed;
+        final ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (log.limit() < WireTraceRecorder.HEADER_SIZE
+                || log.getInt(0) != WireTraceRecorder.MAGIC
+                || log.getInt(4) != WireTraceRecorder.VERSION) {
+            throw new CorruptedRecordException("Not a wire trace: " + file);
+        }
+        final int segmentSize = log.getInt(WireTraceRecorder.SEGMENT_SIZE_OFFSET);
+        if (segmentSize < 0 || WireTraceRecorder.HEADER_SIZE + 2L * segmentSize > log.limit()) {
+            throw new CorruptedRecordException("Truncated wire trace: " + file);
+        }
+        final int active = log.getInt(WireTraceRecorder.ACTIVE_SEGMENT_OFFSET) & 1;
+        // the inactive segment holds the older records
+        final int[] segments = {active ^ 1, active};
+
+        int count = 0;
+        int payloadSize = 0;
+        for (final int segment : segments) {
+            final int start = WireTraceRecorder.HEADER_SIZE + segment * segmentSize;
+            final int end = start + log.getInt(WireTraceRecorder.USED_OFFSET + 4 * segment);
+            if (end < start || end - start > segmentSize) {
+                throw new CorruptedRecordException("Truncated wire trace: " + file);
+            }
+            for (int p = start; p < end; p += WireTraceRecorder.RECORD_HEADER_SIZE + log.getInt(p + 1)) {
+                checkRecord(log, p, end, file);
+                count++;
+                payloadSize += log.getInt(p + 1);
+            }
+        }
+
+        kinds = new byte[count];
+        nanos = new long[count];
+        offsets = new int[count];
+        lengths = new int[count];
+        payload = new byte[payloadSize];
+        int i = 0;
+        int offset = 0;
+        for (final int segment : segments) {
+            final int start = WireTraceRecorder.HEADER_SIZE + segment * segmentSize;
+            final int end = start + log.getInt(WireTraceRecorder.USED_OFFSET + 4 * segment);
+            int p = start;
+            while (p < end) {
+                checkRecord(log, p, end, file);
+                kinds[i] = log.get(p);
+                lengths[i] = log.getInt(p + 1);
+                nanos[i] = log.getLong(p + 5);
+                offsets[i] = offset;
+                ((Buffer) log).position(p + WireTraceRecorder.RECORD_HEADER_SIZE); // no ByteBuffer override on Java 8
+                log.get(payload, offset, lengths[i]);
+                offset += lengths[i];
+                p += WireTraceRecorder.RECORD_HEADER_SIZE + lengths[i];
+                i++;
+            }
+        }
+    }
+
+    // a crash while recording can leave a torn record at the end of a segment
+    private static void checkRecord(final ByteBuffer log, final int p, final int end, final Path file) {
+        final int remaining = end - p - WireTraceRecorder.RECORD_HEADER_SIZE;
+        if (remaining < 0 || log.getInt(p + 1) < 0 || log.getInt(p + 1) > remaining) {
+            throw new CorruptedRecordException("Truncated wire trace: " + file);
+        }
+    }
+
+    /**
+     * @return number of the written bytes which differed from the recording or exceeded it
+     */
+    public long getDivergentBytes() {
+        return divergentBytes;
+    }
+
+    /**
+     * @return true if all recorded records were played back
+     */
+    public boolean isFinished() {
+        skipBaudRates();
+        return record == kinds.length;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean open() {
+        open = true;
+        record = 0;
+        position = 0;
+        anchorRealNanos = System.nanoTime();
+        anchorTraceNanos = kinds.length == 0 ? 0 : nanos[0];
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        open = false;
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        this.baudRate = baudRate;
+    }
+
+    @Override
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public int bytesAvailable() {
+        if (!open) {
+            return 0;
+        }
+        skipBaudRates();
+        final long now = System.nanoTime();
+        int available = 0;
+        for (int i = record; i < kinds.length && kinds[i] != WireTraceRecorder.WRITE; i++) {
+            if (kinds[i] == WireTraceRecorder.BAUD_RATE) {
+                continue;
+            }
+            if (lengths[i] == 0 || availableAt(i) - now > 0) {
+                break;
+            }
+            available += lengths[i] - (i == record ? position : 0);
+        }
+        return available;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        if (!open) {
+            return -1;
+        }
+        int read = 0;
+        while (read < length) {
+            skipBaudRates();
+            if (record == kinds.length || kinds[record] == WireTraceRecorder.WRITE) {
+                break; // the device waits for the host
+            }
+            if (lengths[record] == 0) {
+                if (read == 0) {
+                    next(); // recorded timeout
+                }
+                break;
+            }
+            sleepUntil(availableAt(record));
+            final int n = Math.min(length - read, lengths[record] - position);
+            System.arraycopy(payload, offsets[record] + position, buffer, offset + read, n);
+            position += n;
+            read += n;
+            if (position == lengths[record]) {
+                next();
+            }
+        }
+        if (read == 0) {
+            sleepUntil(System.nanoTime() + scale(TimeUnit.MILLISECONDS.toNanos(readTimeout)));
+        }
+        return read;
+    }
+
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        if (!open) {
+            return -1;
+        }
+        // the host moved on, the rest of the recorded response is never read
+        while (record < kinds.length && kinds[record] != WireTraceRecorder.WRITE) {
+            next();
+        }
+        if (record < kinds.length && position == 0) {
+            anchorRealNanos = System.nanoTime();
+            anchorTraceNanos = nanos[record];
+        }
+        int matched = 0;
+        while (matched < length && record < kinds.length && kinds[record] == WireTraceRecorder.WRITE) {
+            final int n = Math.min(length - matched, lengths[record] - position);
+            for (int i = 0; i < n; i++) {
+                if (payload[offsets[record] + position + i] != buffer[offset + matched + i]) {
+                    divergentBytes++;
+                }
+            }
+            position += n;
+            matched += n;
+            if (position == lengths[record]) {
+                next();
+            }
+        }
+        divergentBytes += length - matched;
+        return length;
+    }
+
+    private void next() {
+        record++;
+        position = 0;
+    }
+
+    private void skipBaudRates() {
+        while (record < kinds.length && kinds[record] == WireTraceRecorder.BAUD_RATE) {
+            next();
+        }
+    }
+
+    private long availableAt(final int index) {
+        return anchorRealNanos + scale(nanos[index] - anchorTraceNanos);
+    }
+
+    private long scale(final long nanos) {
+        return (long) (nanos / speed);
+    }
+
+    private static void sleepUntil(final long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
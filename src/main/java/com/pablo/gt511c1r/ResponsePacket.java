@@ -1,6 +1,5 @@
 package com.pablo.gt511c1r;
 
-import com.fazecast.jSerialComm.SerialPort;
 import com.pablo.gt511c1r.exception.ResponsePacketParingException;
 
 import java.util.Arrays;
@@ -16,9 +15,7 @@ class ResponsePacket {
     static final byte COMMAND_DEVICE_ID_2 = 0x00;    // Device ID Byte 2 (greater byte)							-	theoretically never changes
 
     private final Error error;
-    private final byte[] rawBytes;
-    private final byte[] parameterBytes;
-    private final byte[] responseBytes;
+    private final int parameter;
     private final boolean ack;
     private final byte[] dataBytes;
 
@@ -27,16 +24,8 @@ class ResponsePacket {
         checkInputBuffer(buffer, true);
         ack = buffer[8] == Command.ACK.getValue() ? true : false;
         error = Error.getInstance(buffer[5], buffer[4]);
-        parameterBytes = parseParameterBytes(buffer);
-        responseBytes = parseResponseBytes(buffer);
+        parameter = PacketCodec.parameter(buffer, 0);
         dataBytes = parseDataBytes(buffer);
-        rawBytes = parseRawBytes(buffer);
-    }
-
-    static ResponsePacket read(final SerialPort serial, final int dataPacketSize) {
-        final byte[] responseBytes = new byte[RESPONSE_PACKET_SIZE + dataPacketSize];
-        serial.readBytes(responseBytes, responseBytes.length);
-        return new ResponsePacket(responseBytes);
     }
 
     private void checkInputBuffer(final byte[] buffer, final boolean useSerialDebug) {
@@ -55,22 +44,6 @@ class ResponsePacket {
         checkParsing(buffer[11], checksumHigh, checksumHigh, "Checksum_HIGH", useSerialDebug);
     }
 
-    private static byte[] parseParameterBytes(final byte[] buffer) {
-        final byte[] paramBytes = new byte[4];
-        paramBytes[0] = buffer[4];
-        paramBytes[1] = buffer[5];
-        paramBytes[2] = buffer[6];
-        paramBytes[3] = buffer[7];
-        return paramBytes;
-    }
-
-    private static byte[] parseResponseBytes(final byte[] buffer) {
-        final byte[] responseBytes = new byte[2];
-        responseBytes[0] = buffer[8];
-        responseBytes[1] = buffer[9];
-        return responseBytes;
-    }
-
     private byte[] parseDataBytes(final byte[] buffer) {
         if (buffer.length > RESPONSE_PACKET_SIZE + DATA_PACKET_HEADER_SIZE) {
             return Arrays.copyOfRange(buffer, RESPONSE_PACKET_SIZE + DATA_PACKET_HEADER_SIZE, buffer.length - 2); // TODO sprawdzic rozmir tablicy
@@ -79,24 +52,6 @@ class ResponsePacket {
         }
     }
 
-    private static byte[] parseRawBytes(final byte[] buffer) {
-        final byte[] rawBytes = new byte[12];
-        for (int i = 0; i < 12; i++) {
-            rawBytes[i] = buffer[i];
-        }
-        return rawBytes;
-    }
-
-    // Gets an int from the parameter bytes
-    private int intFromParameter() {
-        int retval = 0;
-        retval = (retval << 8) + parameterBytes[3];
-        retval = (retval << 8) + parameterBytes[2];
-        retval = (retval << 8) + parameterBytes[1];
-        retval = (retval << 8) + parameterBytes[0];
-        return retval;
-    }
-
     // calculates the checksum from the bytes in the packet
     private static int calculateChecksum(byte[] buffer, int length) {
         int checksum = 0;
@@ -142,7 +97,7 @@ class ResponsePacket {
     }
 
     int getParameter() {
-        return intFromParameter();
+        return parameter;
     }
 
     byte[] getDataBytes() {
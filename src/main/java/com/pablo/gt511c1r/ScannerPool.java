@@ -0,0 +1,191 @@
+package com.pablo.gt511c1r;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of scanners connected to one host. Every scanner has its own I/O thread, so
+ * operations dispatched to different scanners run in parallel and a slow device does not
+ * block the others. Single operations go to the least loaded scanner in rotation;
+ * scanners with repeated failures are taken out of rotation and get a single probe
+ * operation after the probation period (see {@link DeviceHealth}).
+ */
+public class ScannerPool {
+
+    private static final int DEFAULT_MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long DEFAULT_PROBATION_MILLIS = 30_000;
+
+    private final List<AsyncFingerprintScanner> scanners;
+    private final List<DeviceHealth> health;
+    private final LongAdder completed = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param commPortNames names of the serial ports of the scanners
+     */
+    public static ScannerPool of(final Collection<String> commPortNames) {
+        final List<AsyncFingerprintScanner> scanners = new ArrayList<>(commPortNames.size());
+        for (final String commPortName : commPortNames) {
+            scanners.add(new AsyncFingerprintScanner(commPortName));
+        }
+        return new ScannerPool(scanners);
+    }
+
+    public ScannerPool(final Collection<AsyncFingerprintScanner> scanners) {
+        this(scanners, DEFAULT_MAX_CONSECUTIVE_FAILURES, DEFAULT_PROBATION_MILLIS);
+    }
+
+    /**
+     * @param scanners               scanners used exclusively by the pool from now on
+     * @param maxConsecutiveFailures number of consecutive failures taking a scanner out of rotation
+     * @param probationMillis        time after which a scanner out of rotation is probed again
+     * @throws IllegalArgumentException if {@code scanners} is empty or {@code maxConsecutiveFailures} is not positive
+     */
+    public ScannerPool(final Collection<AsyncFingerprintScanner> scanners,
+                       final int maxConsecutiveFailures,
+                       final long probationMillis) {
+        if (scanners.isEmpty()) {
+            throw new IllegalArgumentException("scanners cannot be empty");
+        }
+        if (maxConsecutiveFailures <= 0) {
+            throw new IllegalArgumentException("maxConsecutiveFailures must be positive");
+        }
+        this.scanners = Collections.unmodifiableList(new ArrayList<>(scanners));
+        final List<DeviceHealth> health = new ArrayList<>(scanners.size());
+        for (final AsyncFingerprintScanner scanner : this.scanners) {
+            health.add(new DeviceHealth(scanner.getPortName(), maxConsecutiveFailures,
+                    TimeUnit.MILLISECONDS.toNanos(probationMillis)));
+        }
+        this.health = Collections.unmodifiableList(health);
+    }
+
+    /**
+     * Opens all scanners in parallel
+     *
+     * @return future completed when all scanners were opened
+     */
+    public CompletableFuture<Void> open() {
+        return CompletableFuture.allOf(broadcast(FingerprintScanner::open).toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Closes all scanners and stops their I/O threads
+     *
+     * @return future completed when all scanners were closed
+     */
+    public CompletableFuture<Void> close() {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(scanners.size());
+        for (final AsyncFingerprintScanner scanner : scanners) {
+            futures.add(scanner.close());
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Dispatches the operation to the least loaded scanner in rotation
+     *
+     * @param operation operation to execute
+     * @param <T>       type of the result
+     * @return future completed with the result of the operation, or exceptionally
+     * with {@link IllegalStateException} if no scanner is in rotation
+     */
+    public <T> CompletableFuture<T> submit(final AsyncFingerprintScanner.Operation<T> operation) {
+        while (true) {
+            int selected = -1;
+            int minInFlight = Integer.MAX_VALUE;
+            for (int i = 0; i < scanners.size(); i++) {
+                final DeviceHealth deviceHealth = health.get(i);
+                final int inFlight = deviceHealth.getInFlight();
+                if (deviceHealth.isDispatchable() && inFlight < minInFlight) {
+                    selected = i;
+                    minInFlight = inFlight;
+                }
+            }
+            if (selected < 0) {
+                final CompletableFuture<T> future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException("No scanner in rotation"));
+                return future;
+            }
+            final CompletableFuture<T> future = tryDispatch(selected, operation);
+            if (future != null) {
+                return future;
+            }
+            // another thread claimed the probe of the selected scanner
+        }
+    }
+
+    /**
+     * Dispatches the operation to every scanner in rotation in parallel
+     *
+     * @param operation operation to execute
+     * @param <T>       type of the result
+     * @return futures of the operation, one per scanner in rotation
+     */
+    public <T> List<CompletableFuture<T>> broadcast(final AsyncFingerprintScanner.Operation<T> operation) {
+        final List<CompletableFuture<T>> futures = new ArrayList<>(scanners.size());
+        for (int i = 0; i < scanners.size(); i++) {
+            final CompletableFuture<T> future = tryDispatch(i, operation);
+            if (future != null) {
+                futures.add(future);
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * @return future of the operation, or null if the scanner is out of rotation and
+     * its probe is not due or already in flight
+     */
+    private <T> CompletableFuture<T> tryDispatch(final int index, final AsyncFingerprintScanner.Operation<T> operation) {
+        final DeviceHealth deviceHealth = health.get(index);
+        final boolean probe = !deviceHealth.isInRotation();
+        if (probe && !deviceHealth.tryBeginProbe()) {
+            return null;
+        }
+        deviceHealth.inFlight().incrementAndGet();
+        return scanners.get(index).submit(operation).whenComplete((result, error) -> {
+            deviceHealth.inFlight().decrementAndGet();
+            completed.increment();
+            if (error == null) {
+                deviceHealth.recordSuccess();
+            } else {
+                deviceHealth.recordError(error instanceof CompletionException ? error.getCause() : error);
+            }
+            if (probe) {
+                deviceHealth.endProbe();
+            }
+        });
+    }
+
+    public List<AsyncFingerprintScanner> getScanners() {
+        return scanners;
+    }
+
+    /**
+     * @return health of the scanners, in the order of {@link #getScanners()}
+     */
+    public List<DeviceHealth> getHealth() {
+        return health;
+    }
+
+    /**
+     * @return number of the operations finished by all scanners
+     */
+    public long getCompletedOperations() {
+        return completed.sum();
+    }
+
+    /**
+     * @return operations finished by all scanners per second since the pool was created
+     */
+    public double getThroughput() {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        return elapsedNanos == 0 ? 0.0 : completed.sum() * 1e9 / elapsedNanos;
+    }
+}
@@ -0,0 +1,51 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Byte transport between the host and GT-511C1R. The default implementation drives
+ * a serial port through jSerialComm; other implementations allow to run the driver
+ * against an emulator or a network bridge.
+ * <p>
+ * Reads block until the requested number of bytes was received or the read timeout elapsed.
+ */
+public interface SerialTransport {
+
+    /**
+     * @return name identifying the device, e.g. the system name of the serial port
+     */
+    String getName();
+
+    boolean open();
+
+    boolean close();
+
+    boolean isOpen();
+
+    void setBaudRate(int baudRate);
+
+    int getBaudRate();
+
+    /**
+     * @param readTimeout maximal time of a blocking read in milliseconds
+     */
+    void setReadTimeout(int readTimeout);
+
+    int getReadTimeout();
+
+    /**
+     * @return number of the bytes which can be read without blocking
+     */
+    int bytesAvailable();
+
+    /**
+     * Reads up to {@code length} bytes, blocking until all of them were received
+     * or the read timeout elapsed
+     *
+     * @return number of the bytes read, 0 on timeout, or -1 if an error has occurred
+     */
+    int read(byte[] buffer, int offset, int length);
+
+    /**
+     * @return number of the bytes written or -1 if an error has occurred
+     */
+    int write(byte[] buffer, int offset, int length);
+}
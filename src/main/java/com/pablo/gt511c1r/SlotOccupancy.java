@@ -0,0 +1,66 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Host-side bitmap of the occupied slots of the GT-511C1R database.
+ * Bit {@code n} is set if the slot {@code n} holds a template. The bitmap is
+ * only trusted while it is synced with the device.
+ */
+final class SlotOccupancy {
+
+    static final int SLOTS = 20;
+    private static final int ALL_SLOTS = (1 << SLOTS) - 1;
+
+    private volatile int bits;
+    private volatile boolean synced;
+
+    boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * Marks the bitmap as not reflecting the device any more, e.g. after a lost response
+     */
+    void markUnsynced() {
+        synced = false;
+    }
+
+    /**
+     * @param bits occupied slots read from the device
+     */
+    void reset(final int bits) {
+        this.bits = bits & ALL_SLOTS;
+        synced = true;
+    }
+
+    boolean isOccupied(final int slot) {
+        return (bits & (1 << slot)) != 0;
+    }
+
+    void occupy(final int slot) {
+        bits |= 1 << slot;
+    }
+
+    void release(final int slot) {
+        bits &= ~(1 << slot);
+    }
+
+    void releaseAll() {
+        bits = 0;
+    }
+
+    int count() {
+        return Integer.bitCount(bits);
+    }
+
+    /**
+     * @return the lowest free slot or -1 if all slots are occupied
+     */
+    int firstFree() {
+        final int free = ~bits & ALL_SLOTS;
+        return free == 0 ? -1 : Integer.numberOfTrailingZeros(free);
+    }
+
+    int bits() {
+        return bits;
+    }
+}
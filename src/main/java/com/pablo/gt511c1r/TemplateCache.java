@@ -0,0 +1,132 @@
+package com.pablo.gt511c1r;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded host-side cache of templates downloaded from GT-511C1R, keyed by the device
+ * and the slot of the template. The least recently used templates are evicted first.
+ * One cache may be shared by many scanners. Templates are copied in and out, so callers
+ * cannot modify the cached content.
+ * <p>
+ * Thread safe.
+ */
+public class TemplateCache {
+
+    private static final class Key {
+        private final String device;
+        private final int slot;
+
+        private Key(final String device, final int slot) {
+            this.device = device;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return slot == key.slot && device.equals(key.device);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * device.hashCode() + slot;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, byte[]> templates;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity maximal number of the cached templates
+     * @throws IllegalArgumentException if {@code capacity} is not positive
+     */
+    public TemplateCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.templates = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, byte[]> eldest) {
+                return size() > TemplateCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param device name of the device
+     * @param slot   slot of the template
+     * @return copy of the cached template or null if the template is not cached
+     */
+    public synchronized byte[] get(final String device, final int slot) {
+        final byte[] template = templates.get(new Key(Objects.requireNonNull(device), slot));
+        if (template == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return template.clone();
+    }
+
+    /**
+     * Caches the copy of the template
+     *
+     * @param device   name of the device
+     * @param slot     slot of the template
+     * @param template template held by the device in the slot
+     */
+    public synchronized void put(final String device, final int slot, final byte[] template) {
+        templates.put(new Key(Objects.requireNonNull(device), slot), template.clone());
+    }
+
+    /**
+     * Removes the template of the slot of the device
+     */
+    public synchronized void invalidate(final String device, final int slot) {
+        templates.remove(new Key(Objects.requireNonNull(device), slot));
+    }
+
+    /**
+     * Removes all templates of the device
+     */
+    public synchronized void invalidate(final String device) {
+        Objects.requireNonNull(device);
+        final Iterator<Key> iterator = templates.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().device.equals(device)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        templates.clear();
+    }
+
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
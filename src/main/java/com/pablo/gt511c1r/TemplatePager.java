@@ -0,0 +1,241 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies fingerprints against more users than the 20 slots of GT-511C1R.
+ * Templates of all users are held on the host and paged through the device database
+ * in batches of 20; every page is searched with {@code IDENTIFY_TEMPLATE_1_N}.
+ * Users are paged by the number of their past matches, so the most frequently matched
+ * users are in the first page and the common case is answered without uploading anything.
+ * <p>
+ * The pager owns the database of the device: pages are loaded with {@code DELETE_ALL}
+ * followed by {@code SET_TEMPLATE}. Not thread safe; run it on the I/O thread of an
+ * {@link AsyncFingerprintScanner} when the scanner is shared.
+ */
+public class TemplatePager {
+
+    private static final int PAGE_SIZE = SlotOccupancy.SLOTS;
+    // Number of identifications after which the pages are reordered by the hits
+    private static final int REPAGE_INTERVAL = 64;
+
+    private static final class User {
+        private final int userId;
+        private final byte[] template;
+        private long hits;
+
+        private User(final int userId, final byte[] template) {
+            this.userId = userId;
+            this.template = template;
+        }
+    }
+
+    private final FingerprintScanner scanner;
+    private final Map<Integer, User> users = new HashMap<>();
+    private final List<User[]> pages = new ArrayList<>();
+    // Users held by the device, indexed by the slot; null if the device content is unknown
+    private User[] loadedPage;
+    private boolean dirty;
+    private int identificationsSinceRepage;
+
+    /**
+     * @param scanner opened scanner whose database is used exclusively by the pager
+     */
+    public TemplatePager(final FingerprintScanner scanner) {
+        this.scanner = Objects.requireNonNull(scanner);
+    }
+
+    /**
+     * Adds or replaces the template of the user
+     *
+     * @param userId   ID of the user
+     * @param template bytes of the template
+     */
+    public void put(final int userId, final byte[] template) {
+        final User previous = users.put(userId, new User(userId, template.clone()));
+        if (previous != null && loadedPage != null && Arrays.asList(loadedPage).contains(previous)) {
+            loadedPage = null; // the device holds the old template
+        }
+        dirty = true;
+    }
+
+    /**
+     * Removes the template of the user
+     *
+     * @param userId ID of the user
+     */
+    public void remove(final int userId) {
+        final User removed = users.remove(userId);
+        if (removed != null) {
+            if (loadedPage != null && Arrays.asList(loadedPage).contains(removed)) {
+                loadedPage = null;
+            }
+            dirty = true;
+        }
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * @return number of the pages the users are split into
+     */
+    public int getPageCount() {
+        repageIfNeeded();
+        return pages.size();
+    }
+
+    /**
+     * Captures the currently pressed finger in high quality and identifies it. The capture
+     * is checked by the quality gate of the scanner, see {@link FingerprintScanner#setQualityGate(ImageQualityGate)}.
+     *
+     * @return ID of the matched user or -1 if no user matches
+     * @throws CommandProcessingException with {@link Error#NACK_BAD_FINGER} if the gate rejected
+     *                                    the captures, or if finger is not pressed or any error has occurred
+     */
+    public int captureAndIdentify() throws CommandProcessingException {
+        scanner.captureForMatch(true);
+        return identify();
+    }
+
+    /**
+     * Identifies the finger captured with {@link FingerprintScanner#captureFinger(boolean)}
+     *
+     * @return ID of the matched user or -1 if no user matches
+     * @throws CommandProcessingException if any error has occurred
+     */
+    public int identify() throws CommandProcessingException {
+        return identify(scanner.makeTemplate());
+    }
+
+    /**
+     * Identifies the template. The page held by the device is searched first, then the
+     * remaining pages from the most to the least frequently matched.
+     *
+     * @param probe template to identify
+     * @return ID of the matched user or -1 if no user matches
+     * @throws CommandProcessingException if any error has occurred
+     */
+    public int identify(final byte[] probe) throws CommandProcessingException {
+        if (++identificationsSinceRepage >= REPAGE_INTERVAL) {
+            identificationsSinceRepage = 0;
+            dirty = true;
+        }
+        repageIfNeeded();
+
+        final User[] searched = loadedPage;
+        if (searched != null) {
+            final int userId = search(searched, probe);
+            if (userId >= 0) {
+                return userId;
+            }
+        }
+        for (final User[] page : pages) {
+            if (page == searched) {
+                continue;
+            }
+            load(page);
+            final int userId = search(page, probe);
+            if (userId >= 0) {
+                return userId;
+            }
+        }
+        return -1;
+    }
+
+    private int search(final User[] page, final byte[] probe) throws CommandProcessingException {
+        final int slot;
+        try {
+            slot = scanner.identifyTemplate(probe);
+        } catch (CommandProcessingException e) {
+            final Error error = e.getError().orElse(Error.INVALID);
+            if (error == Error.NACK_IDENTIFY_FAILED || error == Error.NACK_DB_IS_EMPTY) {
+                return -1;
+            }
+            throw e;
+        }
+        if (slot < 0 || slot >= page.length || page[slot] == null) {
+            return -1;
+        }
+        final User user = page[slot];
+        user.hits++;
+        return user.userId;
+    }
+
+    private void load(final User[] page) throws CommandProcessingException {
+        loadedPage = null;
+        try {
+            scanner.deleteAll();
+        } catch (CommandProcessingException e) {
+            if (e.getError().orElse(Error.INVALID) != Error.NACK_DB_IS_EMPTY) {
+                throw e;
+            }
+        }
+        for (int slot = 0; slot < page.length; slot++) {
+            if (page[slot] != null) {
+                scanner.setTemplate(page[slot].template, slot, false);
+            }
+        }
+        loadedPage = page;
+    }
+
+    private void repageIfNeeded() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        final List<User> sorted = new ArrayList<>(users.values());
+        sorted.sort((a, b) -> Long.compare(b.hits, a.hits));
+        final List<User[]> repaged = new ArrayList<>((sorted.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        for (int i = 0; i < sorted.size(); i += PAGE_SIZE) {
+            final User[] page = new User[PAGE_SIZE];
+            for (int slot = 0; slot < PAGE_SIZE && i + slot < sorted.size(); slot++) {
+                page[slot] = sorted.get(i + slot);
+            }
+            repaged.add(page);
+        }
+        if (loadedPage != null) {
+            // keep the device content if it equals a page of the new order
+            User[] matching = null;
+            for (final User[] page : repaged) {
+                if (sameUsers(page, loadedPage)) {
+                    matching = page;
+                    break;
+                }
+            }
+            if (matching != null) {
+                repaged.set(repaged.indexOf(matching), loadedPage);
+            }
+        }
+        pages.clear();
+        pages.addAll(repaged);
+    }
+
+    // true if both pages contain the same users, regardless of the slots
+    private static boolean sameUsers(final User[] a, final User[] b) {
+        final List<User> users = Arrays.asList(b);
+        int count = 0;
+        for (final User user : a) {
+            if (user != null) {
+                if (!users.contains(user)) {
+                    return false;
+                }
+                count++;
+            }
+        }
+        for (final User user : b) {
+            if (user != null) {
+                count--;
+            }
+        }
+        return count == 0;
+    }
+}
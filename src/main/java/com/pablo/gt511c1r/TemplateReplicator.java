@@ -0,0 +1,127 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Replicates a set of templates to many scanners. For every device the replicator keeps
+ * a manifest with the content hash of each slot, so only slots whose content differs are
+ * uploaded with {@code SET_TEMPLATE} (or deleted), and unchanged slots cost no serial
+ * round-trip. Devices are updated concurrently, each on its own I/O thread.
+ * <p>
+ * The first replication to a device builds its manifest by downloading the enrolled
+ * templates. A manifest is dropped when a replication fails, and slots whose occupancy
+ * no longer matches the manifest (e.g. enrolled locally since) are re-read.
+ * <p>
+ * Thread safe.
+ */
+public class TemplateReplicator {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final Map<String, byte[][]> manifests = new ConcurrentHashMap<>();
+
+    /**
+     * Replicates the templates to all scanners concurrently. Slots missing from
+     * {@code templates} are deleted from the devices.
+     *
+     * @param templates templates indexed by the slot (0-19)
+     * @param scanners  opened scanners
+     * @return future completed with the number of the changed slots per port name
+     * @throws IllegalArgumentException if any slot is not between 0-19
+     */
+    public CompletableFuture<Map<String, Integer>> replicate(final Map<Integer, byte[]> templates,
+                                                             final Collection<AsyncFingerprintScanner> scanners) {
+        final byte[][] desired = new byte[SlotOccupancy.SLOTS][];
+        for (final Map.Entry<Integer, byte[]> entry : templates.entrySet()) {
+            final int slot = entry.getKey();
+            if (slot < 0 || slot >= SlotOccupancy.SLOTS) {
+                throw new IllegalArgumentException("slot is not between 0-19");
+            }
+            desired[slot] = entry.getValue().clone();
+        }
+        final byte[][] desiredDigests = new byte[SlotOccupancy.SLOTS][];
+        final MessageDigest digest = newDigest();
+        for (int slot = 0; slot < SlotOccupancy.SLOTS; slot++) {
+            if (desired[slot] != null) {
+                desiredDigests[slot] = digest.digest(desired[slot]);
+            }
+        }
+
+        final List<AsyncFingerprintScanner> targets = new ArrayList<>(scanners);
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>(targets.size());
+        for (final AsyncFingerprintScanner scanner : targets) {
+            futures.add(scanner.submit(s -> replicateTo(s, desired, desiredDigests)));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            final Map<String, Integer> changed = new HashMap<>();
+            for (int i = 0; i < targets.size(); i++) {
+                changed.put(targets.get(i).getPortName(), futures.get(i).join());
+            }
+            return changed;
+        });
+    }
+
+    /**
+     * Forgets the manifest of the device, e.g. after its database was changed by another host
+     *
+     * @param portName port name of the device
+     */
+    public void forget(final String portName) {
+        manifests.remove(portName);
+    }
+
+    // runs on the I/O thread of the scanner
+    private int replicateTo(final FingerprintScanner scanner,
+                            final byte[][] desired,
+                            final byte[][] desiredDigests) throws CommandProcessingException {
+        final String portName = scanner.getPortName();
+        final byte[][] manifest = manifests.computeIfAbsent(portName, name -> new byte[SlotOccupancy.SLOTS][]);
+        final MessageDigest digest = newDigest();
+        int changed = 0;
+        try {
+            for (int slot = 0; slot < SlotOccupancy.SLOTS; slot++) {
+                final boolean enrolled = scanner.checkEnrolled(slot);
+                if (!enrolled) {
+                    manifest[slot] = null;
+                } else if (manifest[slot] == null) {
+                    manifest[slot] = digest.digest(scanner.getTemplate(slot));
+                }
+                if (Arrays.equals(manifest[slot], desiredDigests[slot])) {
+                    continue;
+                }
+                if (enrolled) {
+                    scanner.deleteId(slot);
+                    manifest[slot] = null;
+                }
+                if (desired[slot] != null) {
+                    scanner.setTemplate(desired[slot], slot, false);
+                    manifest[slot] = desiredDigests[slot];
+                }
+                changed++;
+            }
+        } catch (CommandProcessingException | RuntimeException e) {
+            manifests.remove(portName);
+            throw e;
+        }
+        return changed;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 is required in every JRE
+        }
+    }
+}
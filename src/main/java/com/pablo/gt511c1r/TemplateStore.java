@@ -0,0 +1,305 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+import com.pablo.gt511c1r.exception.CorruptedRecordException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of templates in a memory-mapped file. Templates are kept in fixed-size
+ * records indexed directly by the user ID, so a lookup is a single offset calculation and
+ * templates are read as views of the mapped file without copying through the heap.
+ * <p>
+ * File format (little endian):
+ * <pre>
+ * header (32 bytes): magic "GT5T", version, capacity, record size, reserved
+ * record (528 bytes): user ID, used flag, template length, CRC32 of the template, template (512 bytes)
+ * </pre>
+ * Thread safe.
+ */
+public class TemplateStore implements Closeable {
+
+    /**
+     * Visitor of the templates in the store
+     */
+    @FunctionalInterface
+    public interface TemplateVisitor {
+        /**
+         * @param userId   ID of the user
+         * @param template read-only view of the template in the mapped file, valid during the call
+         */
+        void visit(int userId, ByteBuffer template);
+    }
+
+    static final int MAX_TEMPLATE_SIZE = 512;
+
+    private static final int MAGIC = 0x54355447; // "GT5T"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = RECORD_HEADER_SIZE + MAX_TEMPLATE_SIZE;
+
+    private static final int USER_ID_OFFSET = 0;
+    private static final int USED_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int CRC_OFFSET = 12;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private TemplateStore(final FileChannel channel, final MappedByteBuffer buffer, final int capacity) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Opens the store, creating the file if it does not exist
+     *
+     * @param path     path of the store file
+     * @param capacity number of the records of a new store; user IDs are between 0 and {@code capacity - 1}.
+     *                 Ignored if the file exists.
+     * @return opened store
+     * @throws IOException              if the file cannot be opened or is not a template store
+     * @throws IllegalArgumentException if {@code capacity} is not positive or too large to be mapped
+     */
+    public static TemplateStore open(final Path path, final int capacity) throws IOException {
+        if (capacity <= 0 || (long) capacity * RECORD_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("capacity must be between 1 and "
+                    + (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE);
+        }
+        final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            final boolean created = channel.size() == 0;
+            final int storeCapacity = created ? capacity : readCapacity(channel);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) storeCapacity * RECORD_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, storeCapacity);
+                buffer.putInt(12, RECORD_SIZE);
+            }
+            return new TemplateStore(channel, buffer, storeCapacity);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int readCapacity(final FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read the whole header
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != RECORD_SIZE) {
+            throw new IOException("Not a template store or unsupported version");
+        }
+        final int capacity = header.getInt(8);
+        if (channel.size() < HEADER_SIZE + (long) capacity * RECORD_SIZE) {
+            throw new IOException("Template store is truncated");
+        }
+        return capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized boolean contains(final int userId) {
+        return buffer.getInt(recordOffset(userId) + USED_OFFSET) != 0;
+    }
+
+    /**
+     * Returns the template without copying it. The view is stable only until the next
+     * {@link #put(int, byte[])} or {@link #remove(int)} of the user, as the record is rewritten in place;
+     * use {@link #read(int)} for a copy.
+     *
+     * @param userId ID of the user
+     * @return read-only view of the template in the mapped file or null if the user has no template
+     * @throws CorruptedRecordException if the checksum of the record does not match
+     */
+    public synchronized ByteBuffer get(final int userId) {
+        final int offset = recordOffset(userId);
+        if (buffer.getInt(offset + USED_OFFSET) == 0) {
+            return null;
+        }
+        return templateView(offset);
+    }
+
+    /**
+     * @param userId ID of the user
+     * @return copy of the template or null if the user has no template
+     * @throws CorruptedRecordException if the checksum of the record does not match
+     */
+    public synchronized byte[] read(final int userId) {
+        final ByteBuffer view = get(userId);
+        if (view == null) {
+            return null;
+        }
+        final byte[] template = new byte[view.remaining()];
+        view.get(template);
+        return template;
+    }
+
+    /**
+     * Stores the template of the user, replacing the previous one
+     *
+     * @param userId   ID of the user
+     * @param template bytes of the template
+     * @throws IllegalArgumentException if the template is longer than 512 bytes
+     */
+    public synchronized void put(final int userId, final byte[] template) {
+        if (template.length > MAX_TEMPLATE_SIZE) {
+            throw new IllegalArgumentException("template cannot be longer than " + MAX_TEMPLATE_SIZE);
+        }
+        final int offset = recordOffset(userId);
+        final CRC32 crc = new CRC32();
+        crc.update(template, 0, template.length);
+        buffer.putInt(offset + USED_OFFSET, 0); // a torn write leaves an unused record
+        final ByteBuffer record = buffer.duplicate();
+        ((Buffer) record).position(offset + RECORD_HEADER_SIZE);
+        record.put(template);
+        buffer.putInt(offset + USER_ID_OFFSET, userId);
+        buffer.putInt(offset + LENGTH_OFFSET, template.length);
+        buffer.putInt(offset + CRC_OFFSET, (int) crc.getValue());
+        buffer.putInt(offset + USED_OFFSET, 1);
+    }
+
+    /**
+     * @param userId ID of the user
+     * @return true if the user had a template
+     */
+    public synchronized boolean remove(final int userId) {
+        final int offset = recordOffset(userId);
+        final boolean used = buffer.getInt(offset + USED_OFFSET) != 0;
+        buffer.putInt(offset + USED_OFFSET, 0);
+        return used;
+    }
+
+    /**
+     * @return number of the stored templates
+     */
+    public synchronized int count() {
+        int count = 0;
+        for (int userId = 0; userId < capacity; userId++) {
+            if (buffer.getInt(HEADER_SIZE + userId * RECORD_SIZE + USED_OFFSET) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Visits all stored templates in the order of the user IDs
+     *
+     * @param visitor visitor of the templates
+     * @throws CorruptedRecordException if the checksum of any record does not match
+     */
+    public synchronized void forEach(final TemplateVisitor visitor) {
+        for (int userId = 0; userId < capacity; userId++) {
+            final int offset = HEADER_SIZE + userId * RECORD_SIZE;
+            if (buffer.getInt(offset + USED_OFFSET) != 0) {
+                visitor.visit(userId, templateView(offset));
+            }
+        }
+    }
+
+    /**
+     * Downloads all enrolled templates of the device. The template of the slot {@code n}
+     * is stored as the user {@code firstUserId + n}.
+     *
+     * @param scanner     opened scanner
+     * @param firstUserId user ID of the slot 0
+     * @return number of the exported templates
+     * @throws CommandProcessingException if any error has occurred
+     */
+    public int exportFrom(final FingerprintScanner scanner, final int firstUserId) throws CommandProcessingException {
+        recordOffset(firstUserId + SlotOccupancy.SLOTS - 1);
+        int exported = 0;
+        for (int slot = 0; slot < SlotOccupancy.SLOTS; slot++) {
+            if (scanner.checkEnrolled(slot)) {
+                put(firstUserId + slot, scanner.getTemplate(slot));
+                exported++;
+            } else {
+                remove(firstUserId + slot);
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Uploads the templates of the users {@code firstUserId} to {@code firstUserId + 19}
+     * to the slots 0 to 19 of the device. Slots of users without a template are left untouched.
+     *
+     * @param scanner     opened scanner
+     * @param firstUserId user ID uploaded to the slot 0
+     * @return number of the imported templates
+     * @throws CommandProcessingException if any error has occurred
+     */
+    public int importTo(final FingerprintScanner scanner, final int firstUserId) throws CommandProcessingException {
+        recordOffset(firstUserId + SlotOccupancy.SLOTS - 1);
+        int imported = 0;
+        for (int slot = 0; slot < SlotOccupancy.SLOTS; slot++) {
+            final byte[] template = read(firstUserId + slot);
+            if (template != null) {
+                if (scanner.checkEnrolled(slot)) {
+                    scanner.deleteId(slot);
+                }
+                scanner.setTemplate(template, slot, false);
+                imported++;
+            }
+        }
+        return imported;
+    }
+
+    /**
+     * Writes the changes of the mapped file to the storage device
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private ByteBuffer templateView(final int offset) {
+        final int length = buffer.getInt(offset + LENGTH_OFFSET);
+        if (length < 0 || length > MAX_TEMPLATE_SIZE) {
+            throw new CorruptedRecordException("Invalid template length " + length + " of user "
+                    + buffer.getInt(offset + USER_ID_OFFSET));
+        }
+        final ByteBuffer view = buffer.duplicate();
+        // cast, as the covariant overrides of Java 9 do not exist on Java 8
+        ((Buffer) view).position(offset + RECORD_HEADER_SIZE).limit(offset + RECORD_HEADER_SIZE + length);
+        final ByteBuffer template = view.slice().asReadOnlyBuffer();
+        final CRC32 crc = new CRC32();
+        crc.update(template.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(offset + CRC_OFFSET)) {
+            throw new CorruptedRecordException("Checksum mismatch of user " + buffer.getInt(offset + USER_ID_OFFSET));
+        }
+        return template;
+    }
+
+    private int recordOffset(final int userId) {
+        if (userId < 0 || userId >= capacity) {
+            throw new IllegalArgumentException("userId is not between 0-" + (capacity - 1));
+        }
+        return HEADER_SIZE + userId * RECORD_SIZE;
+    }
+}
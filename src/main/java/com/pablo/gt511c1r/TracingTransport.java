@@ -0,0 +1,93 @@
+package com.pablo.gt511c1r;
+
+import java.util.Objects;
+
+/**
+ * {@link SerialTransport} recording all bytes written to and read from the decorated
+ * transport, and the changes of its baud rate, into a {@link WireTraceRecorder}
+ */
+public class TracingTransport implements SerialTransport {
+
+    private final SerialTransport transport;
+    private final WireTraceRecorder recorder;
+
+    /**
+     * @param transport transport to record
+     * @param recorder  recorder of the traffic
+     * @throws NullPointerException if any argument is null
+     */
+    public TracingTransport(final SerialTransport transport, final WireTraceRecorder recorder) {
+        this.transport = Objects.requireNonNull(transport);
+        this.recorder = Objects.requireNonNull(recorder);
+    }
+
+    /**
+     * Records the serial port driven by jSerialComm
+     *
+     * @param commPortName name of the serial port
+     * @param recorder     recorder of the traffic
+     */
+    public TracingTransport(final String commPortName, final WireTraceRecorder recorder) {
+        this(new JSerialCommTransport(commPortName, FingerprintScanner.DEFAULT_BAUD_RATE, 1000, 0), recorder);
+    }
+
+    @Override
+    public String getName() {
+        return transport.getName();
+    }
+
+    @Override
+    public boolean open() {
+        return transport.open();
+    }
+
+    @Override
+    public boolean close() {
+        return transport.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return transport.isOpen();
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        transport.setBaudRate(baudRate);
+        recorder.recordBaudRate(baudRate);
+    }
+
+    @Override
+    public int getBaudRate() {
+        return transport.getBaudRate();
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        transport.setReadTimeout(readTimeout);
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return transport.getReadTimeout();
+    }
+
+    @Override
+    public int bytesAvailable() {
+        return transport.bytesAvailable();
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        final int read = transport.read(buffer, offset, length);
+        recorder.recordRead(buffer, offset, Math.max(read, 0));
+        return read;
+    }
+
+    @Override
+    public int write(final byte[] buffer, final int offset, final int length) {
+        final int written = transport.write(buffer, offset, length);
+        recorder.recordWrite(buffer, offset, Math.max(written, 0));
+        return written;
+    }
+}
@@ -0,0 +1,21 @@
+package com.pablo.gt511c1r;
+
+/**
+ * Receives the progress of a data packet download from GT-511C1R
+ */
+@FunctionalInterface
+public interface TransferProgressListener {
+
+    TransferProgressListener NONE = (transferredBytes, totalBytes) -> {
+    };
+
+    /**
+     * Called after each chunk of the data packet was received. The checksum of the data
+     * packet is verified only after the last chunk, so the data received so far, also
+     * what was written to the destination, is unverified until the download returns normally.
+     *
+     * @param transferredBytes number of the data bytes received so far
+     * @param totalBytes       number of the data bytes in the whole data packet
+     */
+    void onProgress(int transferredBytes, int totalBytes);
+}
@@ -0,0 +1,158 @@
+package com.pablo.gt511c1r;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records the bytes sent to and received from GT-511C1R into a binary ring log on
+ * a memory-mapped file. Recording is a copy into the mapping, so it costs no system call
+ * and the log survives a crash of the JVM. Attach it with a {@link TracingTransport}
+ * and play it back with a {@link ReplayTransport}.
+ * <p>
+ * The file holds a header and two segments. Records are appended to the active segment;
+ * when it is full the other segment is cleared and becomes active, so the log keeps
+ * between a half and the whole of the capacity of the most recent traffic.
+ * <pre>
+ * header:  magic(4) version(4) segmentSize(4) activeSegment(4) used0(4) used1(4) startMillis(8)
+ * record:  kind(1) length(4) nanos(8) payload(length)
+ * </pre>
+ * Numbers are little-endian and {@code nanos} count from the creation of the recorder.
+ * <p>
+ * Not thread safe; records the traffic of one transport.
+ */
+public class WireTraceRecorder implements Closeable {
+
+    static final int MAGIC = 0x52544754; // "GTTR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_HEADER_SIZE = 13;
+    static final int SEGMENT_SIZE_OFFSET = 8;
+    static final int ACTIVE_SEGMENT_OFFSET = 12;
+    static final int USED_OFFSET = 16;
+    static final int START_MILLIS_OFFSET = 24;
+
+    static final byte WRITE = 1;
+    static final byte READ = 2;
+    static final byte BAUD_RATE = 3;
+
+    // a whole image data packet fits into one segment
+    static final int MIN_SEGMENT_SIZE = 64 * 1024;
+    private static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int segmentSize;
+    private final long originNanos = System.nanoTime();
+    private int activeSegment;
+    private int used;
+
+    /**
+     * Creates a recorder of the default capacity of 16 MiB
+     *
+     * @param file file of the log, overwritten if it exists
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public WireTraceRecorder(final Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param file     file of the log, overwritten if it exists
+     * @param capacity size of the log in bytes, at least 128 KiB
+     * @throws IllegalArgumentException if {@code capacity} is less than 128 KiB
+     * @throws IOException              if the file cannot be created or mapped
+     */
+    public WireTraceRecorder(final Path file, final int capacity) throws IOException {
+        if (capacity < 2 * MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("capacity must be at least " + 2 * MIN_SEGMENT_SIZE + " bytes");
+        }
+        segmentSize = capacity / 2;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + 2L * segmentSize);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(SEGMENT_SIZE_OFFSET, segmentSize);
+        buffer.putInt(ACTIVE_SEGMENT_OFFSET, 0);
+        buffer.putInt(USED_OFFSET, 0);
+        buffer.putInt(USED_OFFSET + 4, 0);
+        buffer.putLong(START_MILLIS_OFFSET, System.currentTimeMillis());
+    }
+
+    void recordWrite(final byte[] bytes, final int offset, final int length) {
+        record(WRITE, bytes, offset, length);
+    }
+
+    /**
+     * @param length number of the bytes read, 0 for a timed out read
+     */
+    void recordRead(final byte[] bytes, final int offset, final int length) {
+        record(READ, bytes, offset, length);
+    }
+
+    void recordBaudRate(final int baudRate) {
+        final long nanos = System.nanoTime() - originNanos;
+        final int position = reserve(4);
+        buffer.put(position, BAUD_RATE);
+        buffer.putInt(position + 1, 4);
+        buffer.putLong(position + 5, nanos);
+        buffer.putInt(position + RECORD_HEADER_SIZE, baudRate);
+        commit(4);
+    }
+
+    /**
+     * Writes the recorded traffic to the storage device
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    // records longer than a segment are split, the traffic is a byte stream anyway
+    private void record(final byte kind, final byte[] bytes, final int offset, final int length) {
+        final long nanos = System.nanoTime() - originNanos;
+        int recorded = 0;
+        do {
+            final int chunk = Math.min(length - recorded, segmentSize - RECORD_HEADER_SIZE);
+            final int position = reserve(chunk);
+            buffer.put(position, kind);
+            buffer.putInt(position + 1, chunk);
+            buffer.putLong(position + 5, nanos);
+            ((Buffer) buffer).position(position + RECORD_HEADER_SIZE); // no ByteBuffer override on Java 8
+            buffer.put(bytes, offset + recorded, chunk);
+            commit(chunk);
+            recorded += chunk;
+        } while (recorded < length);
+    }
+
+    /**
+     * @return position of a record with the payload of {@code length} bytes, switching the segments if needed
+     */
+    private int reserve(final int length) {
+        if (used + RECORD_HEADER_SIZE + length > segmentSize) {
+            activeSegment ^= 1;
+            used = 0;
+            buffer.putInt(USED_OFFSET + 4 * activeSegment, 0);
+            buffer.putInt(ACTIVE_SEGMENT_OFFSET, activeSegment);
+        }
+        return HEADER_SIZE + activeSegment * segmentSize + used;
+    }
+
+    // publishes the record only after it was written completely
+    private void commit(final int length) {
+        used += RECORD_HEADER_SIZE + length;
+        buffer.putInt(USED_OFFSET + 4 * activeSegment, used);
+    }
+}
@@ -5,6 +5,11 @@ import com.pablo.gt511c1r.Error;
 import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Error reported by GT-511C1R. The exception has no stack trace, as it describes the
+ * state of the device rather than the code which received it, and it is thrown often
+ * under failure-heavy workloads.
+ */
 public class CommandProcessingException extends Throwable {
 
     private final Optional<Error> error;
@@ -14,7 +19,7 @@ public class CommandProcessingException extends Throwable {
      * @throws NullPointerException if {@code error} is null
      */
     public CommandProcessingException(final Error error) {
-        super(error.getMessage());
+        super(error.getMessage(), null, false, false);
         this.error = Optional.of(Objects.requireNonNull(error));
     }
 
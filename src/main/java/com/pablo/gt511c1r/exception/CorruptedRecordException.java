@@ -0,0 +1,8 @@
+package com.pablo.gt511c1r.exception;
+
+public class CorruptedRecordException extends RuntimeException {
+
+    public CorruptedRecordException(final String message) {
+        super(message);
+    }
+}
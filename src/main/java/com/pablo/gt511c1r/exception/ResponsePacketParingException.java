@@ -1,8 +1,12 @@
 package com.pablo.gt511c1r.exception;
 
+/**
+ * Corrupted, truncated or timed out response. The exception has no stack trace, as it is
+ * thrown from the same few places of the protocol layer, often on a noisy link.
+ */
 public class ResponsePacketParingException extends RuntimeException { // TODO zrobić zwykly wyjatek
 
     public ResponsePacketParingException(final String message) {
-        super(message);
+        super(message, null, false, false);
     }
 }
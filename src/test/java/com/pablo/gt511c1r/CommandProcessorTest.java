@@ -0,0 +1,65 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandProcessorTest {
+
+    private FingerprintScannerEmulator emulator;
+    private FaultInjectingTransport transport;
+    private CommandProcessor processor;
+
+    @Before
+    public void setUp() {
+        emulator = new FingerprintScannerEmulator("test");
+        emulator.enroll(3, 42);
+        transport = new FaultInjectingTransport(emulator);
+        transport.open();
+        processor = new CommandProcessor(transport);
+    }
+
+    @Test
+    public void resynchronizesAfterGarbage() {
+        // a false start code and a truncated packet before the response
+        transport.garbageBefore(Command.GET_ENROLL_COUNT, (byte) 0x00, (byte) 0x55, (byte) 0xAA, (byte) 0x01,
+                (byte) 0x13, (byte) 0x55, (byte) 0x55, (byte) 0xAA);
+
+        final PacketCodec response = processor.exchange(Command.GET_ENROLL_COUNT);
+
+        assertTrue(response.ack());
+        assertEquals(1, response.getParameter());
+        assertTrue(processor.getSkippedBytes() > 0);
+        assertTrue(processor.exchange(Command.CHECK_ENROLLED, 3).ack());
+    }
+
+    @Test
+    public void resynchronizesTemplateDataPacketAfterGarbage() {
+        transport.garbageBefore(Command.GET_TEMPLATE, (byte) 0x5A, (byte) 0x00, (byte) 0x55);
+
+        final ResponsePacket response = processor.process(Command.GET_TEMPLATE, 3);
+
+        assertTrue(response.isSuccess());
+        assertEquals(FingerprintScannerEmulator.TEMPLATE_SIZE, response.getDataBytes().length);
+    }
+
+    @Test
+    public void lateResponseIsNotPairedWithNextCommand() {
+        // the NACK of the empty slot arrives after the read timeout but within the backed off allowance
+        transport.delay(Command.CHECK_ENROLLED, 300);
+        try {
+            processor.exchange(Command.CHECK_ENROLLED, 5);
+            fail("the response must time out");
+        } catch (ResponsePacketParingException e) {
+            // expected
+        }
+
+        assertTrue(processor.exchange(Command.CHECK_ENROLLED, 3).ack());
+        assertFalse(processor.exchange(Command.CHECK_ENROLLED, 5).ack());
+    }
+}
@@ -0,0 +1,174 @@
+package com.pablo.gt511c1r;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport in front of an instant {@link FingerprintScannerEmulator} injecting faults
+ * into the responses of the next command with the given code: garbage before the response,
+ * a lost response or a response arriving late.
+ */
+final class FaultInjectingTransport implements SerialTransport {
+
+    private final FingerprintScannerEmulator emulator;
+    private final ArrayDeque<Chunk> output = new ArrayDeque<>();
+    private int readTimeout = 100;
+
+    private Command faultCommand;
+    private byte[] garbage;
+    private boolean drop;
+    private long delayNanos;
+
+    FaultInjectingTransport(final FingerprintScannerEmulator emulator) {
+        this.emulator = emulator;
+    }
+
+    /**
+     * Prepends the bytes to the next response of the command
+     */
+    void garbageBefore(final Command command, final byte... bytes) {
+        faultCommand = command;
+        garbage = bytes;
+    }
+
+    /**
+     * Loses the next response of the command
+     */
+    void drop(final Command command) {
+        faultCommand = command;
+        drop = true;
+    }
+
+    /**
+     * Delivers the next response of the command {@code millis} after the command was written
+     */
+    void delay(final Command command, final long millis) {
+        faultCommand = command;
+        delayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public String getName() {
+        return emulator.getName();
+    }
+
+    @Override
+    public boolean open() {
+        return emulator.open();
+    }
+
+    @Override
+    public boolean close() {
+        output.clear();
+        return emulator.close();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return emulator.isOpen();
+    }
+
+    @Override
+    public void setBaudRate(final int baudRate) {
+        emulator.setBaudRate(baudRate);
+    }
+
+    @Override
+    public int getBaudRate() {
+        return emulator.getBaudRate();
+    }
+
+    @Override
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    public synchronized int bytesAvailable() {
+        final long now = System.nanoTime();
+        int available = 0;
+        for (final Chunk chunk : output) {
+            if (now - chunk.availableAt < 0) {
+                break;
+            }
+            available += chunk.bytes.length - chunk.position;
+        }
+        return available;
+    }
+
+    @Override
+    public synchronized int read(final byte[] buffer, final int offset, final int length) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readTimeout);
+        int read = 0;
+        while (read < length) {
+            final Chunk chunk = output.peek();
+            final long now = System.nanoTime();
+            if (chunk == null || now - chunk.availableAt < 0) {
+                final long wakeUp = chunk == null ? deadline : Math.min(chunk.availableAt, deadline);
+                if (read > 0 || now - deadline >= 0) {
+                    break;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.max(wakeUp - now, 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+            final int n = Math.min(length - read, chunk.bytes.length - chunk.position);
+            System.arraycopy(chunk.bytes, chunk.position, buffer, offset + read, n);
+            chunk.position += n;
+            read += n;
+            if (chunk.position == chunk.bytes.length) {
+                output.poll();
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public synchronized int write(final byte[] buffer, final int offset, final int length) {
+        final boolean faulty = faultCommand != null && length == PacketCodec.PACKET_SIZE
+                && buffer[offset + 8] == faultCommand.getValue();
+        final int written = emulator.write(buffer, offset, length);
+        final byte[] response = new byte[emulator.bytesAvailable()];
+        emulator.read(response, 0, response.length);
+        if (faulty) {
+            faultCommand = null;
+            if (garbage != null) {
+                output.add(new Chunk(garbage, System.nanoTime()));
+                garbage = null;
+            }
+            if (drop) {
+                drop = false;
+                return written;
+            }
+        }
+        if (response.length > 0) {
+            output.add(new Chunk(response, System.nanoTime() + (faulty ? delayNanos : 0)));
+        }
+        if (faulty) {
+            delayNanos = 0;
+        }
+        notifyAll();
+        return written;
+    }
+
+    private static final class Chunk {
+        private final byte[] bytes;
+        private final long availableAt;
+        private int position;
+
+        private Chunk(final byte[] bytes, final long availableAt) {
+            this.bytes = Arrays.copyOf(bytes, bytes.length);
+            this.availableAt = availableAt;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CommandProcessingException;
+import com.pablo.gt511c1r.exception.ResponsePacketParingException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FingerprintScannerTest {
+
+    private FingerprintScannerEmulator emulator;
+
+    @Before
+    public void setUp() {
+        emulator = new FingerprintScannerEmulator("test");
+    }
+
+    @Test
+    public void openNegotiatesDeviceLeftAtNonDefaultRate() {
+        final FingerprintScanner previous = new FingerprintScanner(emulator, 57600);
+        previous.open();
+        assertEquals(57600, emulator.getDeviceBaudRate());
+
+        // a new host starts at the default rate, the device stays at 57600
+        emulator.setBaudRate(FingerprintScanner.DEFAULT_BAUD_RATE);
+        final FingerprintScanner scanner = new FingerprintScanner(emulator, 115200);
+        scanner.open();
+
+        assertEquals(115200, scanner.getBaudRate());
+        assertEquals(115200, emulator.getDeviceBaudRate());
+        assertTrue(scanner.setLED(true));
+        assertTrue(emulator.isLedOn());
+    }
+
+    @Test
+    public void openRecoversFromLostBaudRateReply() {
+        final FaultInjectingTransport transport = new FaultInjectingTransport(emulator);
+        transport.drop(Command.CHANGE_BAUD_RATE);
+        final FingerprintScanner scanner = new FingerprintScanner(transport, 115200);
+
+        scanner.open();
+
+        // the device switched although the reply was lost
+        assertEquals(emulator.getDeviceBaudRate(), scanner.getBaudRate());
+        assertTrue(scanner.setLED(true));
+    }
+
+    @Test
+    public void openClosesPortIfNoRateAnswers() {
+        final FingerprintScannerEmulator silent = new FingerprintScannerEmulator("silent") {
+            @Override
+            public int write(final byte[] buffer, final int offset, final int length) {
+                return length; // the device is off
+            }
+        };
+        silent.setReadTimeout(50);
+        final FingerprintScanner scanner = new FingerprintScanner(silent);
+        try {
+            scanner.open();
+            fail("open must fail without a device");
+        } catch (ResponsePacketParingException e) {
+            assertFalse(silent.isOpen());
+        }
+    }
+
+    @Test
+    public void outOfOrderEnrollmentIsRejectedWithTurnError() throws CommandProcessingException {
+        final FingerprintScanner scanner = new FingerprintScanner(emulator);
+        scanner.open();
+        scanner.setLED(true);
+        emulator.placeFinger(7);
+        assertTrue(scanner.enrollStart(5));
+        scanner.captureFinger(true);
+
+        try {
+            scanner.enroll2();
+            fail("ENROLL_2 before ENROLL_1 must be rejected");
+        } catch (CommandProcessingException e) {
+            assertEquals(Error.NACK_TURN_ERR, e.getError().get());
+        }
+        assertFalse(scanner.checkEnrolled(5));
+    }
+
+    @Test
+    public void qualityGateRejectsPoorCapturesBeforeIdentification() {
+        final FingerprintScanner scanner = new FingerprintScanner(emulator);
+        scanner.open();
+        scanner.setLED(true);
+        emulator.enroll(4, 7);
+        scanner.setQualityGate(new ImageQualityGate());
+
+        emulator.placeFinger(7);
+        assertEquals(MatchResult.matched(4), scanner.tryCaptureAndIdentify());
+
+        emulator.placeFinger(7, FingerprintScannerEmulator.FingerCondition.SMUDGED);
+        final long commands = emulator.getCommandCount();
+        assertEquals(Error.NACK_BAD_FINGER, scanner.tryCaptureAndIdentify().getError());
+        // low and high quality captures with their images, no identification
+        assertEquals(4 * 3, emulator.getCommandCount() - commands);
+    }
+
+    @Test
+    public void enrollmentInOrderStoresTemplate() throws CommandProcessingException {
+        final FingerprintScanner scanner = new FingerprintScanner(emulator);
+        scanner.open();
+        scanner.setLED(true);
+        emulator.placeFinger(7);
+        assertTrue(scanner.enrollStart(5));
+        scanner.captureFinger(true);
+        assertTrue(scanner.enroll1());
+        scanner.captureFinger(true);
+        assertTrue(scanner.enroll2());
+        scanner.captureFinger(true);
+        assertTrue(scanner.enroll3());
+
+        assertTrue(scanner.checkEnrolled(5));
+        assertEquals(5, scanner.captureAndIdentify());
+    }
+}
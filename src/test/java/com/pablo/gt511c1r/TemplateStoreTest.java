@@ -0,0 +1,138 @@
+package com.pablo.gt511c1r;
+
+import com.pablo.gt511c1r.exception.CorruptedRecordException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TemplateStoreTest {
+
+    // layout of the file, see TemplateStore
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 528;
+    private static final int USED_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int TEMPLATE_OFFSET = 16;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void templatesSurviveReopening() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("templates");
+        final byte[] template = FingerprintScannerEmulator.templateOf(1);
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            store.put(2, template);
+        }
+        try (TemplateStore store = TemplateStore.open(path, 100)) {
+            assertEquals(8, store.getCapacity());
+            assertEquals(1, store.count());
+            assertArrayEquals(template, store.read(2));
+            assertNull(store.read(3));
+        }
+    }
+
+    @Test
+    public void checksumMismatchIsDetected() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("templates");
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            store.put(2, FingerprintScannerEmulator.templateOf(1));
+        }
+        final long templateByte = HEADER_SIZE + 2 * RECORD_SIZE + TEMPLATE_OFFSET + 100;
+        writeByte(path, templateByte, (byte) ~readByte(path, templateByte));
+
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            try {
+                store.read(2);
+                fail("a corrupted template must be detected");
+            } catch (CorruptedRecordException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void invalidLengthIsDetected() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("templates");
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            store.put(2, FingerprintScannerEmulator.templateOf(1));
+        }
+        writeInt(path, HEADER_SIZE + 2 * RECORD_SIZE + LENGTH_OFFSET, -1);
+
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            try {
+                store.get(2);
+                fail("an invalid length must be detected");
+            } catch (CorruptedRecordException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void tornRecordIsUnused() throws IOException {
+        final Path path = folder.getRoot().toPath().resolve("templates");
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            store.put(2, FingerprintScannerEmulator.templateOf(1));
+        }
+        // a put interrupted after clearing the used flag
+        writeInt(path, HEADER_SIZE + 2 * RECORD_SIZE + USED_OFFSET, 0);
+        writeByte(path, HEADER_SIZE + 2 * RECORD_SIZE + TEMPLATE_OFFSET, (byte) 0x7F);
+
+        try (TemplateStore store = TemplateStore.open(path, 8)) {
+            assertFalse(store.contains(2));
+            assertNull(store.read(2));
+            assertEquals(0, store.count());
+            final byte[] template = FingerprintScannerEmulator.templateOf(2);
+            store.put(2, template);
+            assertArrayEquals(template, store.read(2));
+        }
+    }
+
+    @Test
+    public void notAStoreIsRejected() throws IOException {
+        final Path path = folder.newFile("other").toPath();
+        writeInt(path, 0, 0x12345678);
+        try {
+            TemplateStore.open(path, 8).close();
+            fail("a foreign file must be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static byte readByte(final Path path, final long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            return buffer.get(0);
+        }
+    }
+
+    private static void writeByte(final Path path, final long position, final byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{value}), position);
+        }
+    }
+
+    private static void writeInt(final Path path, final long position, final int value) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, value);
+            channel.write(buffer, position);
+        }
+    }
+}